@@ -1,11 +1,16 @@
+import java.io.IOException;
+import java.util.Collections;
+
+import cd.go.artifact.util.Destination;
 import cd.go.artifact.util.FileMapper;
 
 public class Main {
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
 
+    Destination target = Destination.compile("release", Collections.emptyMap());
     for (FileMapper mapper : FileMapper.list("build/%.aab", "/tmp")) {
-      String path = mapper.remap("release");
+      String path = mapper.remap(target);
       System.out.println(path);
     }
   }
@@ -21,7 +21,7 @@ import javax.json.JsonObject;
 
 import cd.go.artifact.ArtifactMessage;
 import cd.go.artifact.util.JsonBuilder;
-import cd.go.artifact.webdav.model.StoreConfig;
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
 
 /**
  * The {@link FetchRequest} is a request to the plugin to fetch an artifact from the specified
@@ -48,13 +48,13 @@ import cd.go.artifact.webdav.model.StoreConfig;
 public class FetchRequest {
 
   private String            agentWorkingDir;
+  private WebDavStoreConfig storeConfig;
 
-  private final StoreConfig storeConfig = new StoreConfig();
   private final FetchConfig fetchConfig = new FetchConfig();
   private final Metadata    metadata    = new Metadata();
 
 
-  public final StoreConfig getStoreConfig() {
+  public final WebDavStoreConfig getStoreConfig() {
     return storeConfig;
   }
 
@@ -79,7 +79,8 @@ public class FetchRequest {
     JsonObject json = JsonBuilder.of(text);
     FetchRequest request = new FetchRequest();
     request.metadata.parse(json, ArtifactMessage.ARTIFACT_METADATA);
-    request.storeConfig.parse(json, ArtifactMessage.STORE_CONFIGURATION);
+    request.storeConfig =
+        WebDavStoreConfig.fromJSON(json.getJsonObject(ArtifactMessage.STORE_CONFIGURATION).toString());
     request.fetchConfig.parse(json, ArtifactMessage.FETCH_ARTIFACT_CONFIGURATION);
     request.agentWorkingDir = json.getString(ArtifactMessage.AGENT_WORKING_DIRECTORY);
     return request;
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+package cd.go.artifact.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link Destination} is a compiled destination template. The template is parsed once into a
+ * sequence of literals and indexed placeholders <code>$1..$n</code>, that are replaced by the
+ * groups of each {@link FileMapper}. Named placeholders like <code>$GO_PIPELINE_COUNTER</code> are
+ * resolved from the environment while the template is compiled, an unknown name is empty. A
+ * template with a trailing slash appends the name of the file.
+ */
+public class Destination {
+
+  private static final Pattern PARAMS = Pattern.compile("\\$(?:(\\d+)|([a-zA-Z]\\w*))");
+
+  private final String[] literals;
+  private final int[]    groups;
+  private final int      length;
+  private final boolean  appendName;
+
+  /**
+   * Constructs an instance of {@link Destination}. There is one more literal than groups, each
+   * group follows the literal of the same index.
+   *
+   * @param literals
+   * @param groups
+   * @param appendName
+   */
+  private Destination(String[] literals, int[] groups, boolean appendName) {
+    this.literals = literals;
+    this.groups = groups;
+    this.appendName = appendName;
+
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.length = length;
+  }
+
+  /**
+   * Get the directory, that contains all rendered paths. It is the template itself, if it has no
+   * indexed placeholders, otherwise the directory of the leading literal.
+   */
+  public final String getDirectory() {
+    if (groups.length == 0) {
+      return literals[0];
+    }
+    int index = literals[0].lastIndexOf('/');
+    return (index < 0) ? "" : literals[0].substring(0, index);
+  }
+
+  /**
+   * Renders the path for the name and the groups of a file. A missing group is empty, and an empty
+   * group doesn't leave an empty segment in the path.
+   *
+   * @param name
+   * @param values
+   */
+  final String render(String name, List<String> values) {
+    int capacity = length + (appendName ? name.length() : 0);
+    for (int group : groups) {
+      capacity += Destination.getValue(values, group).length();
+    }
+
+    StringBuilder builder = new StringBuilder(capacity);
+    builder.append(literals[0]);
+    for (int index = 0; index < groups.length; index++) {
+      String value = Destination.getValue(values, groups[index]);
+      String literal = literals[index + 1];
+      builder.append(value);
+      if (value.isEmpty() && builder.length() > 0 && builder.charAt(builder.length() - 1) == '/'
+          && literal.startsWith("/")) {
+        builder.append(literal, 1, literal.length());
+      } else {
+        builder.append(literal);
+      }
+    }
+    if (appendName) {
+      builder.append(name);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Compiles the template, the named placeholders are resolved from the environment.
+   *
+   * @param template
+   * @param environment
+   */
+  public static Destination compile(String template, Map<String, String> environment) {
+    Map<String, String> variables = (environment == null) ? Collections.emptyMap() : environment;
+    List<String> literals = new ArrayList<>();
+    List<Integer> groups = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+
+    int offset = 0;
+    Matcher matcher = PARAMS.matcher(template);
+    while (matcher.find()) {
+      literal.append(template, offset, matcher.start());
+      offset = matcher.end();
+      if (matcher.group(1) != null) {
+        literals.add(literal.toString());
+        groups.add(Integer.parseInt(matcher.group(1)));
+        literal.setLength(0);
+        continue;
+      }
+
+      String value = variables.getOrDefault(matcher.group(2), "");
+      literal.append(value);
+      if (value.isEmpty() && literal.length() > 0 && literal.charAt(literal.length() - 1) == '/'
+          && template.startsWith("/", offset)) {
+        offset++;
+      }
+    }
+    literal.append(template, offset, template.length());
+    literals.add(literal.toString());
+
+    return new Destination(literals.toArray(new String[literals.size()]),
+        groups.stream().mapToInt(Integer::intValue).toArray(), template.endsWith("/"));
+  }
+
+  /**
+   * Get the value of the group with the 1-based index, or an empty string.
+   *
+   * @param values
+   * @param group
+   */
+  private static String getValue(List<String> values, int group) {
+    return (group > 0 && group <= values.size()) ? values.get(group - 1) : "";
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+package cd.go.artifact.util;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link Excludes} are the glob patterns of files and directories, that are excluded from the
+ * published sources. The patterns are separated by commas or line breaks:
+ *
+ * <ul>
+ * <li>A pattern without a slash, like <code>*.o</code>, matches the name of a file or directory
+ * at any depth.</li>
+ * <li>A pattern with a trailing slash, like <code>tmp/</code>, matches only directories.</li>
+ * <li>A pattern with another slash, like <code>build/**&#47;*.log</code>, matches the path
+ * relative to the working directory.</li>
+ * </ul>
+ *
+ * An excluded directory is skipped with all its content, it isn't read at all.
+ */
+public class Excludes {
+
+  public static final Excludes NONE = new Excludes(null, Collections.emptyList());
+
+
+  private final Path          root;
+  private final List<Exclude> patterns;
+
+  /**
+   * Constructs an instance of {@link Excludes}.
+   *
+   * @param root
+   * @param patterns
+   */
+  private Excludes(Path root, List<Exclude> patterns) {
+    this.root = root;
+    this.patterns = patterns;
+  }
+
+  /**
+   * Returns <code>true</code> if there are no patterns.
+   */
+  public final boolean isEmpty() {
+    return patterns.isEmpty();
+  }
+
+  /**
+   * Returns <code>true</code> if the file or directory is excluded.
+   *
+   * @param file
+   * @param directory
+   */
+  public final boolean isExcluded(Path file, boolean directory) {
+    if (patterns.isEmpty()) {
+      return false;
+    }
+    Path absolute = file.toAbsolutePath().normalize();
+    Path relative = absolute.startsWith(root) ? root.relativize(absolute) : absolute;
+    Path name = file.getFileName();
+    for (Exclude exclude : patterns) {
+      if ((directory || !exclude.directory) && exclude.matcher.matches(exclude.path ? relative : name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses the patterns, whose paths are relative to the root directory. Throws an
+   * {@link IllegalArgumentException} if a pattern is invalid.
+   *
+   * @param text
+   * @param root
+   */
+  public static Excludes parse(String text, Path root) {
+    if (text == null || text.trim().isEmpty()) {
+      return NONE;
+    }
+
+    List<Exclude> patterns = new ArrayList<>();
+    for (String value : text.split("[,\\r\\n]+")) {
+      String pattern = value.trim();
+      boolean directory = pattern.endsWith("/");
+      if (directory) {
+        pattern = pattern.substring(0, pattern.length() - 1);
+      }
+      if (!pattern.isEmpty()) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        patterns.add(new Exclude(matcher, pattern.contains("/"), directory));
+      }
+    }
+    return new Excludes(root.toAbsolutePath().normalize(), patterns);
+  }
+
+  /**
+   * The {@link Exclude} is a single compiled pattern.
+   */
+  private static class Exclude {
+
+    private final PathMatcher matcher;
+    private final boolean     path;
+    private final boolean     directory;
+
+    /**
+     * Constructs an instance of {@link Exclude}.
+     *
+     * @param matcher
+     * @param path
+     * @param directory
+     */
+    private Exclude(PathMatcher matcher, boolean path, boolean directory) {
+      this.matcher = matcher;
+      this.path = path;
+      this.directory = directory;
+    }
+  }
+}
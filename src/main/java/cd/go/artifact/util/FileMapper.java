@@ -15,13 +15,32 @@
 
 package cd.go.artifact.util;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,23 +48,38 @@ import java.util.regex.Pattern;
  * The {@link FileMapper} is a utility class that allows to list all files matching the provided
  * file pattern. The instances of {@link FileMapper} allow to re-map the name to another relative
  * path.
+ *
+ * Each directory is read once with a {@link DirectoryStream}, the attributes of a matching entry
+ * are read once and kept with the match, so that the caller doesn't need to query the file system
+ * again. The patterns of the path segments are compiled once, the most recently used patterns are
+ * kept for the next scan.
+ *
+ * A segment <code>**</code> matches any number of directories, e.g.
+ * <code>build/**&#47;outputs/(.*)\.apk</code>. The matched directories are captured as a group, in
+ * the order of the segment.
  */
 public class FileMapper {
 
-  private static final Pattern PARAMS = Pattern.compile("\\$(([0-9]+)|([a-zA-Z][a-zA-Z_0-9]*))");
+  private static final LoadingCache<String, Pattern> PATTERNS =
+      CacheBuilder.newBuilder().maximumSize(256).build(CacheLoader.from(FileMapper::compile));
+
+  private static final String GLOBSTAR = "**";
 
 
-  private final File         file;
-  private final List<String> indexes;
+  private final File                file;
+  private final BasicFileAttributes attributes;
+  private final List<String>        indexes;
 
   /**
    * Constructs an instance of {@link FileMapper}.
    *
    * @param File
+   * @param attributes
    * @param groups
    */
-  private FileMapper(File file, List<String> groups) {
+  private FileMapper(File file, BasicFileAttributes attributes, List<String> groups) {
     this.file = file;
+    this.attributes = attributes;
     this.indexes = groups;
   }
 
@@ -57,99 +91,312 @@ public class FileMapper {
   }
 
   /**
-   * Replaces the indexed or named placeholder's with the the parameter values.
+   * Returns <code>true</code> if the matched file is a directory.
+   */
+  public final boolean isDirectory() {
+    return attributes.isDirectory();
+  }
+
+  /**
+   * Returns <code>true</code> if the matched file is a regular file.
+   */
+  public final boolean isFile() {
+    return attributes.isRegularFile();
+  }
+
+  /**
+   * Get the size of the matched file in bytes.
+   */
+  public final long getSize() {
+    return attributes.size();
+  }
+
+  /**
+   * Renders the compiled {@link Destination} with the name and the groups of the file.
    *
-   * @param target
+   * @param destination
    */
-  public String remap(String target) {
-    StringBuffer buffer = new StringBuffer();
-
-    int offset = 0;
-    Matcher matcher = PARAMS.matcher(target);
-    while (matcher.find()) {
-      int index = (matcher.group(2) == null) ? -1 : Integer.parseInt(matcher.group(2));
-      buffer.append(target.substring(offset, matcher.start(1) - 1));
-      if (index > 0 && index <= indexes.size()) {
-        buffer.append(indexes.get(index - 1));
-      }
-      offset = matcher.end(1);
-    }
-    buffer.append(target.substring(offset, target.length()));
-    if (target.endsWith("/")) {
-      buffer.append(file.getName());
+  public final String remap(Destination destination) {
+    return destination.render(file.getName(), indexes);
+  }
+
+  /**
+   * Get the compiled pattern of a path segment, the placeholder <code>%</code> matches any
+   * characters of the name, like <code>.*</code>.
+   *
+   * @param segment
+   */
+  private static Pattern getPattern(String segment) {
+    try {
+      return PATTERNS.getUnchecked(segment);
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause()); // An invalid pattern
+      throw e;
     }
-    return buffer.toString();
   }
 
+  /**
+   * Compiles the pattern of a path segment.
+   *
+   * @param segment
+   */
+  private static Pattern compile(String segment) {
+    return Pattern.compile("^" + segment.replace("%", ".*") + "$");
+  }
 
   /**
-   * Processes the input path from the offset to calculate the specific path and the groups.
+   * Resolve the input pattern on the current working directory, to find all matching files. A
+   * segment <code>**</code> matches any number of directories.
    *
-   * @param file
-   * @param path
-   * @param groups
-   * @param mappings
+   * @param pattern
+   * @param workingDir
    */
-  private static void list(File directory, Path path, List<String> groups, List<FileMapper> mappings) {
-    if (directory.isDirectory()) {
-      String filepattern = path.getName(0).toString().replace('%', '*');
-      Pattern pattern = Pattern.compile("^" + filepattern + "$");
-      for (File file : directory.listFiles(new PatternFilter(pattern))) {
-        List<String> values = new ArrayList<String>(groups);
-        Matcher matcher = pattern.matcher(file.getName());
-        if (matcher.find()) {
-          for (int index = 0; index < matcher.groupCount(); index++) {
-            values.add(matcher.group(index + 1));
-          }
-        }
+  public static List<FileMapper> list(String pattern, String workingDir) throws IOException {
+    return FileMapper.list(pattern, workingDir, 1);
+  }
 
-        if (path.getNameCount() == 1) {
-          mappings.add(new FileMapper(file, values));
-        } else {
-          list(file, path.subpath(1, path.getNameCount()), values, mappings);
-        }
-      }
-    }
+  /**
+   * Resolve the input pattern on the current working directory, to find all matching files. With
+   * a parallelism above 1, sibling directories are listed in parallel on a {@link ForkJoinPool},
+   * and at most as many directories are open at the same time. The result is the same as of a
+   * serial scan.
+   *
+   * @param pattern
+   * @param workingDir
+   * @param parallelism
+   */
+  public static List<FileMapper> list(String pattern, String workingDir, int parallelism) throws IOException {
+    return FileMapper.list(pattern, workingDir, parallelism, Excludes.NONE);
   }
 
   /**
-   * Resolve the input pattern on the current working directory, to find all matching files.
+   * Resolve the input pattern on the current working directory, to find all matching files, that
+   * aren't excluded. An excluded directory isn't scanned.
    *
    * @param pattern
+   * @param workingDir
+   * @param parallelism
+   * @param excludes
    */
-  public static List<FileMapper> list(String pattern, String workingDir) {
+  public static List<FileMapper> list(String pattern, String workingDir, int parallelism, Excludes excludes)
+      throws IOException {
+    Path directory = Paths.get(workingDir);
+    if (!Files.isDirectory(directory)) {
+      return new ArrayList<>();
+    }
+
+    Scan scan = new Scan(directory, Paths.get(pattern), null, Collections.emptyList(),
+        (parallelism > 1) ? new Semaphore(parallelism) : null, excludes);
+    try {
+      if (parallelism > 1) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+          pool.invoke(scan);
+        } finally {
+          pool.shutdown();
+        }
+      } else {
+        scan.invoke();
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
     List<FileMapper> matches = new ArrayList<>();
-    Path path = Paths.get(pattern);
-    list(new File(workingDir), path, Collections.emptyList(), matches);
+    Set<File> files = new HashSet<>();
+    scan.collect(matches);
+    matches.removeIf(m -> !files.add(m.getFile())); // Several globs may match a file more than once
     return matches;
   }
 
   /**
-   * The {@link PatternFilter} class implements a {@link FilenameFilter} using a {@link Pattern} to
-   * find the valid files.
+   * The {@link Scan} matches the first segment of the path in a directory. The remaining segments
+   * are matched by a {@link Scan} of each matching directory, that is forked in a parallel scan.
+   * The matches are collected in the order of the names, independent of the order the scans are
+   * completed.
    */
-  private static class PatternFilter implements FilenameFilter {
+  private static class Scan extends RecursiveAction {
 
-    private final Pattern pattern;
+    private static final long serialVersionUID = 1L;
+
+
+    private final Path         directory;
+    private final Path         path;
+    private final String       prefix;
+    private final List<String> groups;
+    private final Semaphore    handles;
+    private final Excludes     excludes;
+
+    private final List<Object> results = new ArrayList<>();
 
     /**
-     * Constructs an instance of {@link PatternFilter}.
+     * Constructs an instance of {@link Scan}. The prefix is the path of the directories matched by
+     * a leading <code>**</code>.
      *
-     * @param pattern
+     * @param directory
+     * @param path
+     * @param prefix
+     * @param groups
+     * @param handles
+     * @param excludes
+     */
+    private Scan(Path directory, Path path, String prefix, List<String> groups, Semaphore handles,
+        Excludes excludes) {
+      this.directory = directory;
+      this.path = path;
+      this.prefix = prefix;
+      this.groups = groups;
+      this.handles = handles;
+      this.excludes = excludes;
+    }
+
+    /**
+     * Adds the matches of the scan and its nested scans in order to the list.
+     *
+     * @param mappings
      */
-    private PatternFilter(Pattern pattern) {
-      this.pattern = pattern;
+    private void collect(List<FileMapper> mappings) {
+      for (Object result : results) {
+        if (result instanceof Scan) {
+          ((Scan) result).collect(mappings);
+        } else {
+          mappings.add((FileMapper) result);
+        }
+      }
     }
 
     /**
-     * Tests if a specified file should be included in a file list.
-     * 
-     * @param dir
-     * @param name
+     * Scans the directory and the nested scans, in parallel if the scan runs in a
+     * {@link ForkJoinPool}.
      */
     @Override
-    public final boolean accept(File dir, String name) {
-      return pattern.matcher(name).find();
+    protected final void compute() {
+      try {
+        if (GLOBSTAR.equals(path.getName(0).toString())) {
+          walk((prefix == null) ? "" : prefix);
+        } else {
+          list();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      List<Scan> scans = new ArrayList<>();
+      results.stream().filter(r -> r instanceof Scan).forEach(r -> scans.add((Scan) r));
+      if (handles == null) {
+        scans.forEach(Scan::invoke);
+      } else {
+        ForkJoinTask.invokeAll(scans);
+      }
+    }
+
+    /**
+     * Matches the first segment of the path with the entries of the directory.
+     */
+    private void list() throws IOException {
+      Pattern pattern = FileMapper.getPattern(path.getName(0).toString());
+      for (Path entry : read().values()) {
+        if (pattern.matcher(entry.getFileName().toString()).matches()) {
+          BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+          if (!excludes.isExcluded(entry, attributes.isDirectory())) {
+            match(entry, attributes, pattern, path, groups);
+          }
+        }
+      }
+    }
+
+    /**
+     * Matches the path, that starts with <code>**</code>. The rest of the path is matched with the
+     * entries of the directory, each sub directory is scanned with the same path. The directories
+     * matched by <code>**</code> are captured as a single group, a trailing <code>**</code> matches
+     * all files of the tree. Symbolic links to directories aren't descended, to prevent cycles.
+     *
+     * @param prefix
+     */
+    private void walk(String prefix) throws IOException {
+      Path glob = path;
+      while (glob.getNameCount() > 1 && GLOBSTAR.equals(glob.getName(1).toString())) {
+        glob = glob.subpath(1, glob.getNameCount());
+      }
+      Path rest = (glob.getNameCount() == 1) ? null : glob.subpath(1, glob.getNameCount());
+      Pattern pattern = (rest == null) ? null : FileMapper.getPattern(rest.getName(0).toString());
+      List<String> values = new ArrayList<String>(groups);
+      values.add(prefix);
+
+      for (Map.Entry<String, Path> entry : read().entrySet()) {
+        BasicFileAttributes attributes =
+            Files.readAttributes(entry.getValue(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        boolean link = attributes.isSymbolicLink();
+        if (link) {
+          attributes = Files.readAttributes(entry.getValue(), BasicFileAttributes.class);
+        }
+        if (excludes.isExcluded(entry.getValue(), attributes.isDirectory())) {
+          continue;
+        }
+
+        if (rest == null && attributes.isRegularFile()) {
+          results.add(new FileMapper(entry.getValue().toFile(), attributes, values));
+        } else if (rest != null && pattern.matcher(entry.getKey()).matches()) {
+          match(entry.getValue(), attributes, pattern, rest, values);
+        }
+
+        if (attributes.isDirectory() && !link) {
+          String name = prefix.isEmpty() ? entry.getKey() : prefix + "/" + entry.getKey();
+          results.add(new Scan(entry.getValue(), glob, name, groups, handles, excludes));
+        }
+      }
+    }
+
+    /**
+     * Processes an entry, that matches the pattern of the first segment of the path. The groups
+     * of the pattern are appended to the groups.
+     *
+     * @param entry
+     * @param attributes
+     * @param pattern
+     * @param path
+     * @param groups
+     */
+    private void match(Path entry, BasicFileAttributes attributes, Pattern pattern, Path path, List<String> groups) {
+      boolean last = path.getNameCount() == 1;
+      if (!last && !attributes.isDirectory()) {
+        return;
+      }
+
+      List<String> values = new ArrayList<String>(groups);
+      Matcher matcher = pattern.matcher(entry.getFileName().toString());
+      if (matcher.matches()) {
+        for (int index = 0; index < matcher.groupCount(); index++) {
+          values.add(matcher.group(index + 1));
+        }
+      }
+
+      if (last) {
+        results.add(new FileMapper(entry.toFile(), attributes, values));
+      } else {
+        results.add(new Scan(entry, path.subpath(1, path.getNameCount()), null, values, handles, excludes));
+      }
+    }
+
+    /**
+     * Reads the entries of the directory by name. In a parallel scan, the number of directories,
+     * that are open at the same time, is limited.
+     */
+    private Map<String, Path> read() throws IOException {
+      Map<String, Path> entries = new TreeMap<>();
+      if (handles != null) {
+        handles.acquireUninterruptibly();
+      }
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path entry : stream) {
+          entries.put(entry.getFileName().toString(), entry);
+        }
+      } finally {
+        if (handles != null) {
+          handles.release();
+        }
+      }
+      return entries;
     }
   }
 }
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@link ArtifactCache} keeps fetched files in a directory of the agent, so that the same
+ * artifact isn't downloaded again by the next job. An entry is identified by the URL of the
+ * resource and its ETag, a changed resource gets a new entry.
+ *
+ * The entries are kept in memory and recorded in an index, that is merged with the changes of
+ * other agents and replaced atomically once per fetch by {@link #flush()}. Agents on the same host
+ * can share the directory, each access to the index holds an exclusive file lock. The least
+ * recently used entries are evicted, once the cache exceeds its capacity, until it is filled to
+ * the low water mark.
+ *
+ * With links, a cached file is hard linked into the working directory and a downloaded file into
+ * the cache, so that even a large tree is restored without copying its content. The linked files
+ * share their content: a job that modifies a fetched file in place, instead of replacing it, also
+ * modifies the cached entry. Therefore the length and modification time of an entry are verified
+ * before it is reused, a modified entry is dropped. Only a modification that keeps both of them
+ * escapes, so links should only be enabled for jobs that don't edit fetched files in place. If the
+ * file system doesn't support links, the file is copied.
+ */
+class ArtifactCache implements Closeable {
+
+  private static final String INDEX = "index";
+  private static final String LOCK  = "lock";
+  private static final String DATA  = "data";
+  private static final String TEMP  = ".tmp";
+
+  private static final long   STALE     = TimeUnit.DAYS.toMillis(1);
+  private static final double LOW_WATER = 0.9;
+
+
+  private final File          directory;
+  private final long          capacity;
+  private final boolean       link;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private Map<String, Entry> entries;
+  private long               size;
+  private final Set<String>  changed = new HashSet<>();
+  private final Set<String>  removed = new HashSet<>();
+  private boolean            evicted;
+
+  /**
+   * Constructs an instance of {@link ArtifactCache}.
+   *
+   * @param directory
+   * @param capacity
+   * @param link
+   */
+  ArtifactCache(File directory, long capacity, boolean link) {
+    this.directory = directory;
+    this.capacity = capacity;
+    this.link = link;
+  }
+
+  /**
+   * Get the capacity of the cache in bytes.
+   */
+  final long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns <code>true</code> if files are linked instead of copied.
+   */
+  final boolean isLink() {
+    return link;
+  }
+
+  /**
+   * Restores the cached entry next to the file, and returns the restored file or
+   * <code>null</code> if the entry isn't cached. The restored file has the name of the file that
+   * has been cached, which differs from the requested file for decompressed resources. The entry
+   * is copied without holding the lock; an entry, that has been evicted by another agent
+   * meanwhile or modified since it has been stored, isn't cached.
+   *
+   * @param key
+   * @param file
+   */
+  public final File restore(String key, File file) throws IOException {
+    Entry entry = locked(() -> getEntries().get(key));
+    if (entry == null) {
+      return null;
+    }
+
+    File blob = getBlob(key);
+    if (blob.exists() && !entry.matches(blob)) {
+      Files.deleteIfExists(blob.toPath()); // Modified through a link
+      locked(() -> remove(key));
+      return null;
+    }
+
+    File target = new File(file.getParentFile(), entry.name);
+    target.getParentFile().mkdirs();
+    File part = ResumableDownload.getPart(target);
+    boolean restored;
+    try {
+      transfer(blob, part);
+      restored = part.length() == entry.length;
+    } catch (NoSuchFileException e) {
+      restored = false; // Evicted by another agent
+    }
+    if (!restored) {
+      Files.deleteIfExists(part.toPath());
+      locked(() -> remove(key));
+      return null;
+    }
+
+    ResumableDownload.complete(target);
+    locked(() -> {
+      entry.accessed = System.currentTimeMillis();
+      return changed.add(key);
+    });
+    return target;
+  }
+
+  /**
+   * Stores a copy or a link of the file for the key. The file is copied and moved into place before
+   * the lock is taken, the least recently used entries are only evicted if the cache exceeds its
+   * capacity.
+   *
+   * @param key
+   * @param file
+   */
+  public final void store(String key, File file) throws IOException {
+    long length = file.length();
+    if (length > capacity) {
+      return;
+    }
+
+    File data = new File(directory, DATA);
+    data.mkdirs();
+    File temp = File.createTempFile("entry", TEMP, data);
+    File blob = getBlob(key);
+    try {
+      transfer(file, temp);
+      Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+
+    long modified = blob.lastModified();
+    locked(() -> {
+      put(key, new Entry(file.getName(), length, modified, System.currentTimeMillis()));
+      changed.add(key);
+      removed.remove(key);
+      if (size > capacity) {
+        evict();
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Writes the changes of the entries into the index, while the index is locked against other
+   * agents of the host. The index is read again, so that the entries stored by other agents are
+   * kept. Files that aren't referenced by the index are only removed, after entries have been
+   * evicted.
+   */
+  public final void flush() throws IOException {
+    locked(() -> {
+      if (entries == null || (changed.isEmpty() && removed.isEmpty())) {
+        return null;
+      }
+      shared(() -> {
+        Map<String, Entry> index = readIndex();
+        for (String key : changed) {
+          Entry entry = entries.get(key);
+          if (entry != null && getBlob(key).exists()) {
+            index.put(key, entry);
+          }
+        }
+        index.keySet().removeAll(removed);
+        setEntries(index);
+        if (size > capacity) {
+          evict();
+        }
+        if (evicted) {
+          removeOrphans();
+        }
+        writeIndex(entries);
+        return null;
+      });
+      changed.clear();
+      removed.clear();
+      evicted = false;
+      return null;
+    });
+  }
+
+  /**
+   * Writes the changes of the entries into the index.
+   */
+  @Override
+  public final void close() throws IOException {
+    flush();
+  }
+
+  /**
+   * Replaces the target with a hard link to the source, or with a copy if links are disabled or
+   * not supported. The copy keeps the modification time of the source.
+   *
+   * @param source
+   * @param target
+   */
+  private void transfer(File source, File target) throws IOException {
+    if (link) {
+      Files.deleteIfExists(target.toPath());
+      try {
+        Files.createLink(target.toPath(), source.toPath());
+        return;
+      } catch (NoSuchFileException e) {
+        throw e;
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        // The cache is on another file system, or it doesn't support links
+      }
+    }
+    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.COPY_ATTRIBUTES);
+  }
+
+  /**
+   * Get the entries by key, they are read from the index on first use. The caller holds the lock.
+   */
+  private Map<String, Entry> getEntries() throws IOException {
+    if (entries == null) {
+      setEntries(shared(this::readIndex));
+    }
+    return entries;
+  }
+
+  /**
+   * Replaces the entries and computes their size.
+   *
+   * @param index
+   */
+  private void setEntries(Map<String, Entry> index) {
+    entries = index;
+    size = index.values().stream().mapToLong(e -> e.length).sum();
+  }
+
+  /**
+   * Adds or replaces the entry of the key.
+   *
+   * @param key
+   * @param entry
+   */
+  private void put(String key, Entry entry) throws IOException {
+    Entry previous = getEntries().put(key, entry);
+    size += entry.length - ((previous == null) ? 0 : previous.length);
+  }
+
+  /**
+   * Removes the entry of the key.
+   *
+   * @param key
+   */
+  private Entry remove(String key) throws IOException {
+    Entry entry = getEntries().remove(key);
+    if (entry != null) {
+      size -= entry.length;
+    }
+    changed.remove(key);
+    removed.add(key);
+    return entry;
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache is filled to the low water mark, so
+   * that the entries aren't sorted again by the next stored file.
+   */
+  private void evict() throws IOException {
+    List<Map.Entry<String, Entry>> list = new ArrayList<>(getEntries().entrySet());
+    list.sort(Comparator.comparingLong(e -> e.getValue().accessed));
+    long limit = (long) (capacity * LOW_WATER);
+    for (Map.Entry<String, Entry> entry : list) {
+      if (size <= limit) {
+        break;
+      }
+      remove(entry.getKey());
+      Files.deleteIfExists(getBlob(entry.getKey()).toPath());
+    }
+    evicted = true;
+  }
+
+  /**
+   * Removes files that aren't referenced by the index, because an agent died while storing them.
+   */
+  private void removeOrphans() throws IOException {
+    Set<String> blobs = new HashSet<>();
+    entries.keySet().forEach(k -> blobs.add(getBlob(k).getName()));
+    File[] files = new File(directory, DATA).listFiles();
+    for (File file : (files == null) ? new File[0] : files) {
+      boolean pending = file.getName().endsWith(TEMP) && file.lastModified() > System.currentTimeMillis() - STALE;
+      if (!pending && !blobs.contains(file.getName())) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+  }
+
+  /**
+   * Executes the action, while the entries are locked against other threads.
+   *
+   * @param action
+   */
+  private <T> T locked(Action<T> action) throws IOException {
+    lock.lock();
+    try {
+      return action.apply();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Executes the action, while the index is locked against other agents of the host.
+   *
+   * @param action
+   */
+  private <T> T shared(Action<T> action) throws IOException {
+    directory.mkdirs();
+    try (FileChannel channel = FileChannel.open(new File(directory, LOCK).toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      channel.lock(); // Released when the channel is closed
+      return action.apply();
+    }
+  }
+
+  /**
+   * Reads the index. Entries, whose file is missing, are dropped. An entry of an older index has no
+   * modification time, its file has been read-only.
+   */
+  private Map<String, Entry> readIndex() throws IOException {
+    Map<String, Entry> index = new HashMap<>();
+    File file = new File(directory, INDEX);
+    if (!file.exists()) {
+      return index;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] values = line.split("\t", 5);
+        if (values.length == 4 && getBlob(values[3]).exists()) {
+          index.put(values[3], new Entry(values[2], Long.parseLong(values[0]), -1, Long.parseLong(values[1])));
+        } else if (values.length == 5 && getBlob(values[4]).exists()) {
+          index.put(values[4],
+              new Entry(values[3], Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])));
+        }
+      }
+    } catch (NumberFormatException e) {
+      index.clear(); // A damaged index only loses the cached entries
+    }
+    return index;
+  }
+
+  /**
+   * Writes the index into a temporary file, that replaces the index atomically.
+   *
+   * @param index
+   */
+  private void writeIndex(Map<String, Entry> index) throws IOException {
+    File temp = new File(directory, INDEX + TEMP);
+    try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Entry> entry : index.entrySet()) {
+        Entry value = entry.getValue();
+        writer.write(String.format("%d\t%d\t%d\t%s\t%s\n", value.length, value.modified, value.accessed, value.name,
+            entry.getKey()));
+      }
+    }
+    Files.move(temp.toPath(), new File(directory, INDEX).toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Get the file that holds the content of the key.
+   *
+   * @param key
+   */
+  private File getBlob(String key) {
+    String name = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+    return new File(new File(directory, DATA), name);
+  }
+
+  /**
+   * The {@link Action} is executed while the cache is locked.
+   */
+  @FunctionalInterface
+  private interface Action<T> {
+
+    T apply() throws IOException;
+  }
+
+  /**
+   * The {@link Entry} describes a cached file.
+   */
+  private static class Entry {
+
+    private final String name;
+    private final long   length;
+    private final long   modified;
+    private long         accessed;
+
+    /**
+     * Constructs an instance of {@link Entry}.
+     *
+     * @param name
+     * @param length
+     * @param modified
+     * @param accessed
+     */
+    private Entry(String name, long length, long modified, long accessed) {
+      this.name = name;
+      this.length = length;
+      this.modified = modified;
+      this.accessed = accessed;
+    }
+
+    /**
+     * Returns <code>true</code> if the file has the length and modification time of the entry. The
+     * modification time of an entry from an older index is unknown.
+     *
+     * @param file
+     */
+    private boolean matches(File file) {
+      return file.length() == length && (modified < 0 || file.lastModified() == modified);
+    }
+  }
+}
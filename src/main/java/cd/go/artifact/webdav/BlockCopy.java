@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@link BlockCopy} copies a stream into a file in large blocks. Each block is filled
+ * completely before it is written with a single {@link FileChannel} write, so that a fast network
+ * isn't throttled by many small reads and system calls. The buffer is reused per thread.
+ */
+public class BlockCopy {
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+  /**
+   * Copies the stream into the file and returns the number of bytes. If <code>sync</code> is set,
+   * the content is forced to the storage device before the file is closed.
+   *
+   * @param stream
+   * @param file
+   * @param sync
+   */
+  public static long copy(InputStream stream, File file, boolean sync) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      long length = BlockCopy.copy(stream, channel, 0);
+      if (sync) {
+        channel.force(true);
+      }
+      return length;
+    }
+  }
+
+  /**
+   * Copies the stream into the channel, starting at the position, and returns the number of bytes.
+   * The position of the channel isn't changed, so that several streams can write different regions
+   * of the same file concurrently.
+   *
+   * @param stream
+   * @param channel
+   * @param position
+   */
+  public static long copy(InputStream stream, FileChannel channel, long position) throws IOException {
+    byte[] buffer = BUFFERS.get();
+    ByteBuffer block = ByteBuffer.wrap(buffer);
+
+    long length = 0;
+    int read;
+    while ((read = ByteStreams.read(stream, buffer, 0, buffer.length)) > 0) {
+      block.clear().limit(read);
+      while (block.hasRemaining()) {
+        channel.write(block, position + length + block.position());
+      }
+      length += read;
+    }
+    return length;
+  }
+}
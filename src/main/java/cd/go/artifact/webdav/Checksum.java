@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Locale;
+
+/**
+ * The {@link Checksum} defines the digest, that is computed for published files and verifies the
+ * content of fetched files. The digest of a file is stored in a sidecar with the suffix of the
+ * checksum, like <code>.sha256</code>. A store computes a single checksum per file. CRC32C is much
+ * cheaper to compute than SHA-256, but only detects accidental corruption. MD5 is provided for
+ * tools that expect it.
+ */
+public enum Checksum {
+
+  NONE(null),
+  SHA256(Hashing.sha256()),
+  @SuppressWarnings("deprecation") // Guava discourages MD5 for security, it is only kept for compatibility
+  MD5(Hashing.md5()),
+  CRC32C(Hashing.crc32c());
+
+
+  private final HashFunction function;
+
+  /**
+   * Constructs an instance of {@link Checksum}.
+   *
+   * @param function
+   */
+  private Checksum(HashFunction function) {
+    this.function = function;
+  }
+
+  /**
+   * Get the {@link HashFunction} of the checksum.
+   */
+  public final HashFunction getFunction() {
+    return function;
+  }
+
+  /**
+   * Get the suffix of the sidecar, that holds the digest of a file.
+   */
+  public final String getSuffix() {
+    return "." + name().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns <code>true</code> if the name has the suffix of any sidecar.
+   *
+   * @param name
+   */
+  public static boolean isSidecar(String name) {
+    return name.endsWith(SHA256.getSuffix()) || name.endsWith(MD5.getSuffix()) || name.endsWith(CRC32C.getSuffix());
+  }
+
+  /**
+   * Get the {@link Checksum} by its name, an empty name is {@link #NONE}.
+   *
+   * @param text
+   */
+  public static Checksum of(String text) {
+    return (text == null || text.trim().isEmpty()) ? NONE : valueOf(text.trim().toUpperCase(Locale.ROOT));
+  }
+}
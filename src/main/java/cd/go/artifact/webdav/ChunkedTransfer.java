@@ -0,0 +1,416 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.DavResource;
+import com.github.sardine.impl.SardineException;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.apache.http.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cd.go.artifact.Console;
+
+/**
+ * The {@link ChunkedTransfer} uploads large files in fixed-size parts, that are sent in parallel.
+ * The parts are collected in the staging directory <code>&lt;path&gt;.upload</code> together with
+ * a manifest. If an upload fails, the next attempt sends only the parts that are missing.
+ *
+ * Once all parts are stored, the staging directory is moved to <code>&lt;path&gt;.chunks</code>
+ * with a single MOVE. A plain WebDAV server can't concatenate the parts, so a chunked file is
+ * represented by this directory, and {@link #open} streams the parts in sequence.
+ *
+ * With a {@link Checksum}, each part is hashed while it is sent, and the digests of the parts are
+ * stored in the directory as <code>parts.sha256</code>. The parts are sent out of order, so a
+ * digest of the whole file would need a separate read. A fetch verifies each part instead.
+ */
+class ChunkedTransfer {
+
+  static final String UPLOAD = ".upload";
+  static final String CHUNKS = ".chunks";
+
+  private static final String MANIFEST = "manifest";
+  private static final String DIGESTS  = "parts";
+
+  private static final String LENGTH   = "length";
+  private static final String MODIFIED = "modified";
+  private static final String PARTSIZE = "partSize";
+  private static final String PARTS    = "parts";
+
+  private static final int    RETRIES  = 3;
+
+
+  private final WebDAV  webdav;
+  private final Console console;
+
+  /**
+   * Constructs an instance of {@link ChunkedTransfer}.
+   *
+   * @param webdav
+   * @param console
+   */
+  ChunkedTransfer(WebDAV webdav, Console console) {
+    this.webdav = webdav;
+    this.console = console;
+  }
+
+  /**
+   * Uploads the file in parts of the provided size. The parts are queued on the
+   * {@link TransferQueue}, the last finished part assembles the file.
+   *
+   * @param path
+   * @param file
+   * @param partSize
+   */
+  public final void push(String path, File file, long partSize) throws IOException {
+    String staging = path + UPLOAD;
+    Properties manifest = new Properties();
+    manifest.setProperty(LENGTH, Long.toString(file.length()));
+    manifest.setProperty(MODIFIED, Long.toString(file.lastModified()));
+    manifest.setProperty(PARTSIZE, Long.toString(partSize));
+    manifest.setProperty(PARTS, Long.toString(ChunkedTransfer.getParts(file.length(), partSize)));
+
+    Set<String> completed = prepare(staging, manifest);
+    int parts = Integer.parseInt(manifest.getProperty(PARTS));
+    AtomicInteger remaining = new AtomicInteger(parts - completed.size());
+    Map<String, String> digests = new ConcurrentHashMap<>();
+    console.info("Push file '%s' to '%s' in %d parts, %d already stored", file, path, parts, completed.size());
+    for (String part : completed) {
+      webdav.getSummary().addSkipped(0, ChunkedTransfer.getPartLength(part, partSize, file.length()));
+    }
+
+    if (remaining.get() == 0) {
+      webdav.getQueue().submit(() -> assemble(path, staging, file, partSize, digests));
+      return;
+    }
+
+    for (int index = 0; index < parts; index++) {
+      String part = ChunkedTransfer.getPartName(index);
+      if (completed.contains(part)) {
+        continue;
+      }
+
+      long offset = index * partSize;
+      long length = Math.min(partSize, file.length() - offset);
+      String resource = webdav.getResource(String.format("%s/%s", staging, part));
+      webdav.getQueue().submit(() -> {
+        Digester digester = (webdav.getChecksum() == Checksum.NONE) ? null : new Digester(webdav.getChecksum());
+        upload(resource, new FileChannelEntity(file, offset, length, digester));
+        if (digester != null) {
+          digests.put(part, digester.getValue());
+        }
+        webdav.getSummary().addUploaded(0, length);
+        if (remaining.decrementAndGet() == 0) {
+          assemble(path, staging, file, partSize, digests);
+        }
+      });
+    }
+  }
+
+  /**
+   * Prepares the staging directory and returns the names of the parts that are already stored. A
+   * staging directory of a different file is discarded.
+   *
+   * @param staging
+   * @param manifest
+   */
+  private Set<String> prepare(String staging, Properties manifest) throws IOException {
+    Set<String> completed = new HashSet<>();
+    String resource = webdav.getResource(staging);
+
+    if (webdav.exists(staging)) {
+      Properties previous = ChunkedTransfer.getManifest(webdav, staging);
+      if (manifest.equals(previous)) {
+        long partSize = Long.parseLong(manifest.getProperty(PARTSIZE));
+        long length = Long.parseLong(manifest.getProperty(LENGTH));
+        for (DavResource part : webdav.getSardine().list(resource, 1)) {
+          String name = part.getName();
+          if (!part.isDirectory() && !MANIFEST.equals(name) && part.getContentLength() != null
+              && part.getContentLength() == ChunkedTransfer.getPartLength(name, partSize, length)) {
+            completed.add(name);
+          }
+        }
+        return completed;
+      }
+      webdav.getSardine().delete(resource + "/");
+    }
+
+    webdav.createCollection(staging, true);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    manifest.store(bytes, null);
+    webdav.getSardine().put(String.format("%s/%s", resource, MANIFEST), bytes.toByteArray());
+    return completed;
+  }
+
+  /**
+   * Uploads a single part, repeating the upload on network or server errors.
+   *
+   * @param resource
+   * @param entity
+   */
+  private void upload(String resource, FileChannelEntity entity) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try {
+        webdav.getSardine().put(resource, entity, null, true);
+        return;
+      } catch (SardineException e) {
+        if (e.getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR || attempt == RETRIES) {
+          throw e;
+        }
+      } catch (IOException e) {
+        if (attempt == RETRIES) {
+          throw e;
+        }
+      }
+      console.info("Retry upload of '%s'", resource);
+    }
+  }
+
+  /**
+   * Publishes the staging directory with a single MOVE. The digests of the parts are stored first,
+   * only the parts stored by a former attempt are read again. The plain and compressed variants of
+   * a former upload are removed, so that they don't shadow the parts.
+   *
+   * @param path
+   * @param staging
+   * @param file
+   * @param partSize
+   * @param digests
+   */
+  private void assemble(String path, String staging, File file, long partSize, Map<String, String> digests)
+      throws IOException {
+    Checksum checksum = webdav.getChecksum();
+    if (checksum != Checksum.NONE) {
+      StringBuilder builder = new StringBuilder();
+      long parts = ChunkedTransfer.getParts(file.length(), partSize);
+      for (int index = 0; index < parts; index++) {
+        String part = ChunkedTransfer.getPartName(index);
+        String digest = digests.get(part);
+        if (digest == null) {
+          long offset = index * partSize;
+          long length = Math.min(partSize, file.length() - offset);
+          digest = Files.asByteSource(file).slice(offset, length).hash(checksum.getFunction()).toString();
+        }
+        builder.append(Digester.toSidecar(digest, part));
+      }
+      String resource = String.format("%s/%s%s", webdav.getResource(staging), DIGESTS, checksum.getSuffix());
+      webdav.getSardine().put(resource, builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    webdav.removeVariants(path, path + CHUNKS);
+    webdav.getSardine().move(webdav.getResource(staging) + "/", webdav.getResource(path + CHUNKS) + "/", true);
+    webdav.getSummary().addUploaded(1, 0);
+    console.info("File '%s' assembled from parts", path);
+  }
+
+  /**
+   * Opens the chunked file on the path, or returns <code>null</code> if there is none. The parts
+   * are requested one after another while the stream is read. With a {@link Checksum}, each part
+   * is verified with its digest, once it has been read.
+   *
+   * @param webdav
+   * @param path
+   */
+  static InputStream open(WebDAV webdav, String path) throws IOException {
+    String chunks = path + CHUNKS;
+    Properties manifest;
+    try {
+      manifest = ChunkedTransfer.getManifest(webdav, chunks);
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+
+    Map<String, Digest> digests = ChunkedTransfer.getDigests(webdav, chunks);
+    int parts = Integer.parseInt(manifest.getProperty(PARTS));
+    AtomicInteger index = new AtomicInteger();
+    return new SequenceInputStream(new Enumeration<InputStream>() {
+
+      @Override
+      public boolean hasMoreElements() {
+        return index.get() < parts;
+      }
+
+      @Override
+      public InputStream nextElement() {
+        String part = ChunkedTransfer.getPartName(index.getAndIncrement());
+        try {
+          String resource = String.format("%s/%s", chunks, part);
+          InputStream stream = webdav.pull(resource);
+          return digests.containsKey(part) ? ChunkedTransfer.verify(stream, digests.get(part), resource) : stream;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns <code>true</code> if the chunked file on the path has been uploaded from the file in
+   * its current state, by the length and modification time in the manifest.
+   *
+   * @param webdav
+   * @param path
+   * @param file
+   */
+  static boolean isUnchanged(WebDAV webdav, String path, File file) throws IOException {
+    Properties manifest;
+    try {
+      manifest = ChunkedTransfer.getManifest(webdav, path + CHUNKS);
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return false;
+      }
+      throw e;
+    }
+    return Long.toString(file.length()).equals(manifest.getProperty(LENGTH))
+        && Long.toString(file.lastModified()).equals(manifest.getProperty(MODIFIED));
+  }
+
+  /**
+   * Reads the digests of the parts in the chunks directory. Returns no digests without a
+   * {@link Checksum}, or if the parts have been pushed without one.
+   *
+   * @param webdav
+   * @param chunks
+   */
+  private static Map<String, Digest> getDigests(WebDAV webdav, String chunks) throws IOException {
+    Map<String, Digest> digests = new HashMap<>();
+    Checksum checksum = webdav.getChecksum();
+    if (checksum == Checksum.NONE) {
+      return digests;
+    }
+
+    String content;
+    String resource = webdav.getResource(String.format("%s/%s%s", chunks, DIGESTS, checksum.getSuffix()));
+    try (InputStream stream = webdav.getSardine().get(resource)) {
+      content = new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return digests;
+      }
+      throw e;
+    }
+    for (String line : content.split("\n")) {
+      String[] words = line.trim().split("\\s+", 2);
+      if (words.length == 2) {
+        digests.put(words[1], new Digest(checksum, words[0]));
+      }
+    }
+    return digests;
+  }
+
+  /**
+   * Wraps the stream of a part, to verify its digest once the part has been read completely.
+   *
+   * @param stream
+   * @param digest
+   * @param path
+   */
+  private static InputStream verify(InputStream stream, Digest digest, String path) {
+    Hasher hasher = digest.newHasher();
+    return new FilterInputStream(Digest.tee(stream, hasher)) {
+
+      private boolean verified;
+
+      @Override
+      public int read() throws IOException {
+        return verify(super.read());
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return verify(super.read(buffer, offset, length));
+      }
+
+      private int verify(int read) throws IOException {
+        if (read < 0 && !verified) {
+          verified = true;
+          digest.verify(hasher, new File(path));
+        }
+        return read;
+      }
+    };
+  }
+
+  /**
+   * Reads the manifest of a staging or chunks directory.
+   *
+   * @param webdav
+   * @param path
+   */
+  private static Properties getManifest(WebDAV webdav, String path) throws IOException {
+    Properties manifest = new Properties();
+    try (InputStream stream = webdav.getSardine().get(webdav.getResource(path + "/" + MANIFEST))) {
+      manifest.load(stream);
+    }
+    return manifest;
+  }
+
+  /**
+   * Get the number of parts for the file length.
+   *
+   * @param length
+   * @param partSize
+   */
+  private static long getParts(long length, long partSize) {
+    return Math.max(1, (length + partSize - 1) / partSize);
+  }
+
+  /**
+   * Get the expected length of the named part.
+   *
+   * @param name
+   * @param partSize
+   * @param length
+   */
+  private static long getPartLength(String name, long partSize, long length) {
+    try {
+      long offset = Long.parseLong(name) * partSize;
+      return Math.max(0, Math.min(partSize, length - offset));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Get the name of the part.
+   *
+   * @param index
+   */
+  private static String getPartName(int index) {
+    return String.format("%05d", index);
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.DavResource;
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link CollectionCache} remembers the remote collections that are known to exist. A
+ * collection is <i>listed</i>, if all of its child collections are known as well, either because it
+ * has been listed with a PROPFIND or because it has been created empty.
+ *
+ * A cache for a single publish never expires. It may delegate to a shared cache of the agent, whose
+ * entries expire after a time to live, so that changes on the server are picked up eventually. The
+ * files of a directory are only remembered for a single publish, each directory is listed once even
+ * if several workers ask for it concurrently.
+ */
+class CollectionCache {
+
+  /**
+   * The {@link Lister} lists the files of a remote directory by name.
+   */
+  interface Lister {
+
+    Map<String, DavResource> list(String path) throws IOException;
+  }
+
+  private final long                                              timeToLive;
+  private final CollectionCache                                   parent;
+  private final Map<String, Boolean>                              listed  = new ConcurrentHashMap<>();
+  private final Map<String, Long>                                 expires = new ConcurrentHashMap<>();
+  private final Map<String, FutureTask<Map<String, DavResource>>> files   = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an instance of {@link CollectionCache} for a single publish.
+   *
+   * @param parent
+   */
+  CollectionCache(CollectionCache parent) {
+    this.timeToLive = 0;
+    this.parent = parent;
+  }
+
+  /**
+   * Constructs a shared instance of {@link CollectionCache}, whose entries expire.
+   *
+   * @param timeToLive
+   * @param unit
+   */
+  CollectionCache(long timeToLive, TimeUnit unit) {
+    this.timeToLive = unit.toMillis(timeToLive);
+    this.parent = null;
+  }
+
+  /**
+   * Get the time to live of the entries in milliseconds, 0 if they never expire.
+   */
+  final long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * Returns <code>true</code> if the collection is known to exist.
+   *
+   * @param path
+   */
+  public final boolean contains(String path) {
+    return isValid(path) || (parent != null && parent.contains(path));
+  }
+
+  /**
+   * Returns <code>true</code> if all child collections of the collection are known.
+   *
+   * @param path
+   */
+  public final boolean isListed(String path) {
+    return (isValid(path) && Boolean.TRUE.equals(listed.get(path))) || (parent != null && parent.isListed(path));
+  }
+
+  /**
+   * Adds a collection that is known to exist.
+   *
+   * @param path
+   * @param isListed
+   */
+  public final void add(String path, boolean isListed) {
+    listed.merge(path, isListed, Boolean::logicalOr);
+    if (timeToLive > 0) {
+      expires.put(path, System.currentTimeMillis() + timeToLive);
+    }
+    if (parent != null) {
+      parent.add(path, isListed);
+    }
+  }
+
+  /**
+   * Get the files of the directory by name. The directory is listed by the first caller, concurrent
+   * callers wait for its listing. A failed listing is retried by the next caller.
+   *
+   * @param path
+   * @param lister
+   */
+  public final Map<String, DavResource> getFiles(String path, Lister lister) throws IOException {
+    FutureTask<Map<String, DavResource>> task = files.computeIfAbsent(path, p -> new FutureTask<>(() -> lister.list(p)));
+    task.run();
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while listing " + path);
+    } catch (ExecutionException e) {
+      files.remove(path, task);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Adds a directory without files, that has been created by this publish.
+   *
+   * @param path
+   */
+  public final void addEmpty(String path) {
+    FutureTask<Map<String, DavResource>> task = new FutureTask<>(Collections::emptyMap);
+    task.run();
+    files.putIfAbsent(path, task);
+  }
+
+  /**
+   * Returns <code>true</code> if the collection has been added and is not yet expired.
+   *
+   * @param path
+   */
+  private boolean isValid(String path) {
+    if (!listed.containsKey(path)) {
+      return false;
+    }
+    if (timeToLive > 0 && expires.getOrDefault(path, 0L) < System.currentTimeMillis()) {
+      listed.remove(path);
+      expires.remove(path);
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.EntityTemplate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The {@link Compression} defines how files are compressed while they are uploaded. Compressed
+ * files are stored in the gzip format with the suffix <code>.gz</code>, so that they can be
+ * recognized and decompressed while they are fetched. The gzip header carries a comment, that
+ * tells a compressed file apart from a file that already had the suffix.
+ *
+ * Files that are already compressed, recognized by their extension, their leading bytes or a
+ * sample that doesn't compress, and tiny files are sent as-is.
+ */
+public enum Compression {
+
+  NONE(Deflater.NO_COMPRESSION),
+  GZIP(Deflater.DEFAULT_COMPRESSION),
+  FAST(Deflater.BEST_SPEED);
+
+  public static final String SUFFIX = ".gz";
+
+  private static final int         MIN_SIZE    = 512;
+  private static final int         BUFFER_SIZE = 64 * 1024;
+  private static final int         SAMPLE_SIZE = 16 * 1024;
+  private static final Set<String> COMPRESSED  = ImmutableSet.of("zip", "jar", "war", "ear", "apk", "aar", "ipa",
+      "nupkg", "whl", "gz", "tgz", "bz2", "xz", "zst", "lz4", "7z", "rar", "deb", "rpm", "dmg", "png", "jpg", "jpeg",
+      "gif", "webp", "mp3", "mp4", "m4a", "mov", "mkv", "webm", "woff", "woff2");
+  private static final byte[][]    MAGIC       = { { 0x50, 0x4B, 0x03, 0x04 }, { 0x1F, (byte) 0x8B },
+      { (byte) 0x89, 0x50, 0x4E, 0x47 }, { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }, { 0x42, 0x5A, 0x68 },
+      { (byte) 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00 }, { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD },
+      { 0x37, 0x7A, (byte) 0xBC, (byte) 0xAF } };
+  private static final byte[]      HEADER      = { 0x1F, (byte) 0x8B, Deflater.DEFLATED, 0x10, 0, 0, 0, 0, 0,
+      (byte) 0xFF, 'w', 'e', 'b', 'd', 'a', 'v', 0 };
+
+
+  private final int level;
+
+  /**
+   * Constructs an instance of {@link Compression}.
+   *
+   * @param level
+   */
+  private Compression(int level) {
+    this.level = level;
+  }
+
+  /**
+   * Returns <code>true</code> if the file should be compressed.
+   *
+   * @param file
+   */
+  public final boolean isCompressible(File file) throws IOException {
+    if (this == NONE || file.length() < MIN_SIZE) {
+      return false;
+    }
+    String extension = Files.getFileExtension(file.getName()).toLowerCase(Locale.ROOT);
+    return !COMPRESSED.contains(extension) && !Compression.hasCompressedContent(file);
+  }
+
+  /**
+   * Creates an entity that compresses the file while it is sent. The length of the content is
+   * unknown, so the entity is sent chunked. The {@link Digester} hashes the uncompressed content,
+   * if there is one.
+   *
+   * @param file
+   * @param digester
+   */
+  final HttpEntity toEntity(File file, Digester digester) {
+    return new EntityTemplate(stream -> {
+      try (DeflaterOutputStream gzip = compress(stream)) {
+        if (digester == null) {
+          Files.copy(file, gzip);
+        } else {
+          try (InputStream input = digester.tee(new FileInputStream(file))) {
+            ByteStreams.copy(input, gzip);
+          }
+          digester.finish();
+        }
+        gzip.finish();
+        gzip.flush();
+      }
+    });
+  }
+
+  /**
+   * Wraps the stream, to compress the data while it is written. The caller has to finish the
+   * compression and close the returned stream, which releases the compressor but leaves the stream
+   * open.
+   *
+   * @param stream
+   */
+  public final DeflaterOutputStream compress(OutputStream stream) throws IOException {
+    return new GzipStream(stream, level);
+  }
+
+  /**
+   * Returns <code>true</code> if the stream starts with the gzip header of a file compressed by
+   * {@link #compress}. The stream must support {@link InputStream#mark}, it is reset to the start.
+   *
+   * @param stream
+   */
+  public static boolean isCompressed(InputStream stream) throws IOException {
+    byte[] header = new byte[HEADER.length];
+    stream.mark(header.length);
+    int length = ByteStreams.read(stream, header, 0, header.length);
+    stream.reset();
+    return length == header.length && Arrays.equals(header, HEADER);
+  }
+
+  /**
+   * Wraps the stream of a compressed file, to decompress it while it is read.
+   *
+   * @param stream
+   */
+  public static InputStream decompress(InputStream stream) throws IOException {
+    try {
+      return new GZIPInputStream(stream, BUFFER_SIZE);
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Parses the {@link Compression} from the text, a blank text disables the compression.
+   *
+   * @param text
+   */
+  public static Compression of(String text) {
+    return (text == null || text.trim().isEmpty()) ? NONE : valueOf(text.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns <code>true</code> if the file starts with the signature of a compressed format, or if
+   * a sample of the leading bytes doesn't compress well.
+   *
+   * @param file
+   */
+  private static boolean hasCompressedContent(File file) throws IOException {
+    byte[] sample = new byte[SAMPLE_SIZE];
+    int length;
+    try (InputStream stream = new FileInputStream(file)) {
+      length = ByteStreams.read(stream, sample, 0, sample.length);
+    }
+
+    for (byte[] magic : MAGIC) {
+      if (length >= magic.length && Arrays.equals(magic, Arrays.copyOf(sample, magic.length))) {
+        return true;
+      }
+    }
+    // ISO base media files (mp4, mov, heic) have the box type 'ftyp' at offset 4
+    if (length >= 8 && sample[4] == 'f' && sample[5] == 't' && sample[6] == 'y' && sample[7] == 'p') {
+      return true;
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      deflater.setInput(sample, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[length];
+      int compressed = 0;
+      while (!deflater.finished() && compressed < length) {
+        compressed += deflater.deflate(buffer, 0, buffer.length);
+      }
+      return compressed > length * 9 / 10;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * The {@link GzipStream} writes the gzip format with the header of this plugin. The deflater is
+   * released when the stream is closed, also if it hasn't been finished after a failure. The
+   * underlying stream is not closed.
+   */
+  private static class GzipStream extends DeflaterOutputStream {
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Constructs an instance of {@link GzipStream}.
+     *
+     * @param stream
+     * @param level
+     */
+    private GzipStream(OutputStream stream, int level) throws IOException {
+      super(stream, new Deflater(level, true), BUFFER_SIZE);
+      try {
+        stream.write(HEADER);
+      } catch (IOException e) {
+        def.end();
+        throw e;
+      }
+    }
+
+    /**
+     * Writes the bytes to the compressed stream.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    @Override
+    public final void write(byte[] bytes, int offset, int length) throws IOException {
+      super.write(bytes, offset, length);
+      crc.update(bytes, offset, length);
+    }
+
+    /**
+     * Finishes the compressed data and writes the trailer with the checksum and the length.
+     */
+    @Override
+    public final void finish() throws IOException {
+      if (def.finished()) {
+        return;
+      }
+      super.finish();
+      ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      trailer.putInt((int) crc.getValue()).putInt((int) def.getBytesRead());
+      out.write(trailer.array());
+    }
+
+    /**
+     * Releases the deflater, without finishing the compressed data or closing the underlying stream.
+     */
+    @Override
+    public final void close() {
+      def.end();
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.DavResource;
+import com.github.sardine.impl.SardineException;
+import com.google.common.hash.Hashing;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cd.go.artifact.Console;
+
+/**
+ * The {@link ContentStore} stores each file once under its SHA-256 hash, in the blob directory
+ * <code>.cas/ab/cdef...</code>. A blob that already exists is not uploaded again, so the same file
+ * published by many pipelines occupies the storage only once.
+ *
+ * Each file is read once. A small file is read into memory and hashed, so that it isn't sent at all
+ * if its blob is stored. A large file is hashed while it is sent to a staging resource, which is
+ * moved to its blob, or discarded if the blob has been stored before.
+ *
+ * The logical tree of a publish is described by a manifest, that lists the hash and the relative
+ * path of each file in the format of <code>sha256sum</code>. The manifest is stored next to the
+ * destination as <code>&lt;destination&gt;.manifest</code>.
+ */
+public class ContentStore {
+
+  private static final String BLOBS    = ".cas";
+  private static final String STAGING  = "staging";
+  private static final String MANIFEST = ".manifest";
+
+  private static final int    BUFFERED = 8 * 1024 * 1024;
+
+
+  private final WebDAV              webdav;
+  private final Console             console;
+  private final Set<String>         blobs = ConcurrentHashMap.newKeySet();
+  private final Map<String, String> files = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an instance of {@link ContentStore}.
+   *
+   * @param webdav
+   * @param console
+   */
+  ContentStore(WebDAV webdav, Console console) {
+    this.webdav = webdav;
+    this.console = console;
+  }
+
+  /**
+   * Queues the file for upload. The file is hashed by the worker, while it is read for the upload.
+   *
+   * @param path
+   * @param file
+   */
+  final void push(String path, File file) throws IOException {
+    webdav.getQueue().submit(() -> {
+      if (file.length() <= BUFFERED) {
+        pushBuffered(path, file);
+      } else {
+        pushStaged(path, file);
+      }
+    });
+  }
+
+  /**
+   * Reads the file into memory and uploads its blob, unless it is stored yet.
+   *
+   * @param path
+   * @param file
+   */
+  private void pushBuffered(String path, File file) throws IOException {
+    byte[] content = Files.readAllBytes(file.toPath());
+    String hash = Hashing.sha256().hashBytes(content).toString();
+    String blob = ContentStore.getBlob(hash);
+    files.put(path, hash);
+
+    if (!blobs.add(hash) || isStored(blob, content.length)) {
+      console.info("Skip file '%s', the content is already stored", path);
+      webdav.getSummary().addSkipped(1, content.length);
+      return;
+    }
+
+    console.info("Push file '%s' to '%s'", file, blob);
+    webdav.store(blob, new ByteArrayEntity(content));
+    webdav.getSummary().addUploaded(1, content.length);
+  }
+
+  /**
+   * Uploads the file to a staging resource and moves it to its blob, once the hash is known. The
+   * staging resource is deleted, if the blob is stored already.
+   *
+   * @param path
+   * @param file
+   */
+  private void pushStaged(String path, File file) throws IOException {
+    String staging = String.format("%s/%s/%s", BLOBS, STAGING, UUID.randomUUID());
+    Digester digester = new Digester(Checksum.SHA256);
+    console.info("Push file '%s' to '%s'", file, staging);
+    webdav.store(staging, new FileChannelEntity(file, digester));
+    webdav.getSummary().addUploaded(1, file.length());
+
+    String hash = digester.getValue();
+    String blob = ContentStore.getBlob(hash);
+    files.put(path, hash);
+    if (!blobs.add(hash) || isStored(blob, file.length())) {
+      console.info("Discard file '%s', the content is already stored", path);
+      webdav.getSardine().delete(webdav.getResource(staging));
+      return;
+    }
+
+    try {
+      webdav.getSardine().move(webdav.getResource(staging), webdav.getResource(blob), true);
+    } catch (SardineException e) {
+      if (e.getStatusCode() != HttpStatus.SC_CONFLICT) {
+        throw e;
+      }
+      webdav.createCollection(blob.substring(0, blob.lastIndexOf('/')), true);
+      webdav.getSardine().move(webdav.getResource(staging), webdav.getResource(blob), true);
+    }
+  }
+
+  /**
+   * Writes the manifest of all pushed files and returns its path. The paths in the manifest are
+   * relative to the common parent directory of the destinations, there has to be at least one.
+   *
+   * @param destinations
+   */
+  public final String writeManifest(List<String> destinations) throws IOException {
+    if (destinations.isEmpty()) {
+      throw new IOException("No destinations to write the manifest for");
+    }
+    String location = destinations.get(0) + MANIFEST;
+    int base = ContentStore.getBase(destinations).length();
+
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, String> entry : new TreeMap<>(files).entrySet()) {
+      builder.append(entry.getValue()).append("  ").append(entry.getKey().substring(base)).append('\n');
+    }
+
+    console.info("Write manifest '%s' with %d files", location, files.size());
+    webdav.store(location, new ByteArrayEntity(builder.toString().getBytes(StandardCharsets.UTF_8)));
+    return location;
+  }
+
+  /**
+   * Returns <code>true</code> if the blob exists with the expected length. A blob of a different
+   * length is the remainder of a failed upload and is replaced.
+   *
+   * @param blob
+   * @param length
+   */
+  private boolean isStored(String blob, long length) throws IOException {
+    try {
+      List<DavResource> resources = webdav.getSardine().list(webdav.getResource(blob), 0);
+      return !resources.isEmpty() && resources.get(0).getContentLength() != null
+          && resources.get(0).getContentLength() == length;
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the path refers to a blob, whose content never changes.
+   *
+   * @param path
+   */
+  public static boolean isBlob(String path) {
+    return path.startsWith(BLOBS + "/") || path.contains("/" + BLOBS + "/");
+  }
+
+  /**
+   * Get the SHA-256 hash of the blob on the path.
+   *
+   * @param path
+   */
+  public static String getHash(String path) {
+    String[] names = path.split("/");
+    return names[names.length - 2] + names[names.length - 1];
+  }
+
+  /**
+   * Returns <code>true</code> if the location refers to a manifest.
+   *
+   * @param location
+   */
+  public static boolean isManifest(String location) {
+    return location.endsWith(MANIFEST);
+  }
+
+  /**
+   * Reads the manifest and returns the blob path for each relative file path.
+   *
+   * @param webdav
+   * @param location
+   */
+  public static Map<String, String> readManifest(WebDAV webdav, String location) throws IOException {
+    Map<String, String> files = new LinkedHashMap<>();
+    try (InputStream stream = webdav.pull(location);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int index = line.indexOf("  ");
+        if (line.isEmpty()) {
+          continue;
+        } else if (index < 0) {
+          throw new IOException(String.format("Invalid manifest '%s': %s", location, line));
+        }
+
+        String path = line.substring(index + 2);
+        if (path.startsWith("/") || Arrays.asList(path.split("/")).contains("..")) {
+          throw new IOException(String.format("Invalid path in manifest '%s': %s", location, path));
+        }
+        files.put(path, ContentStore.getBlob(line.substring(0, index)));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Get the path of the blob for the hash.
+   *
+   * @param hash
+   */
+  private static String getBlob(String hash) {
+    return String.format("%s/%s/%s", BLOBS, hash.substring(0, 2), hash.substring(2));
+  }
+
+  /**
+   * Get the common parent directory of the paths, including the trailing slash.
+   *
+   * @param paths
+   */
+  static String getBase(List<String> paths) {
+    String base = null;
+    for (String path : paths) {
+      String parent = path.substring(0, path.lastIndexOf('/') + 1);
+      while (base != null && !parent.startsWith(base)) {
+        base = base.substring(0, base.lastIndexOf('/', base.length() - 2) + 1);
+      }
+      base = (base == null) ? parent : base;
+    }
+    return (base == null) ? "" : base;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.hash.Hasher;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * The {@link Digest} is the expected digest of a file. The fetched content is hashed while it is
+ * copied, so that the file isn't read a second time.
+ */
+class Digest {
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+
+  private final Checksum checksum;
+  private final String   value;
+
+  /**
+   * Constructs an instance of {@link Digest}.
+   *
+   * @param checksum
+   * @param value
+   */
+  Digest(Checksum checksum, String value) {
+    this.checksum = checksum;
+    this.value = value.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Creates a new {@link Hasher} for the checksum.
+   */
+  public final Hasher newHasher() {
+    return checksum.getFunction().newHasher();
+  }
+
+  /**
+   * Verifies the hashed content of the file.
+   *
+   * @param hasher
+   * @param file
+   */
+  public final void verify(Hasher hasher, File file) throws IOException {
+    String actual = hasher.hash().toString();
+    if (!value.equals(actual)) {
+      throw new IOException(String.format("Checksum mismatch for '%s': expected %s %s, but got %s", file,
+          checksum.name(), value, actual));
+    }
+  }
+
+  /**
+   * Verifies the file with a separate read, for content that hasn't been written in sequence.
+   *
+   * @param file
+   */
+  public final void verify(File file) throws IOException {
+    Hasher hasher = newHasher();
+    Digest.update(hasher, file, file.length());
+    verify(hasher, file);
+  }
+
+  /**
+   * Returns <code>true</code> if the content of the file has the expected digest.
+   *
+   * @param file
+   */
+  public final boolean matches(File file) throws IOException {
+    Hasher hasher = newHasher();
+    Digest.update(hasher, file, file.length());
+    return value.equals(hasher.hash().toString());
+  }
+
+  /**
+   * Parses the content of a sidecar, the digest is the first word of the first line, like the
+   * output of <code>sha256sum</code>. Returns <code>null</code> for an empty sidecar.
+   *
+   * @param checksum
+   * @param content
+   */
+  static Digest parse(Checksum checksum, String content) {
+    String[] words = content.trim().split("\\s+", 2);
+    return words[0].isEmpty() ? null : new Digest(checksum, words[0]);
+  }
+
+  /**
+   * Hashes the leading bytes of the file.
+   *
+   * @param hasher
+   * @param file
+   * @param length
+   */
+  static void update(Hasher hasher, File file, long length) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream stream = Files.newInputStream(file.toPath())) {
+      long remaining = length;
+      int read;
+      while (remaining > 0 && (read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+        hasher.putBytes(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  /**
+   * Wraps the stream, so that all bytes read are hashed.
+   *
+   * @param stream
+   * @param hasher
+   */
+  static InputStream tee(InputStream stream, Hasher hasher) {
+    return new FilterInputStream(stream) {
+
+      @Override
+      public int read() throws IOException {
+        int value = in.read();
+        if (value >= 0) {
+          hasher.putByte((byte) value);
+        }
+        return value;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read > 0) {
+          hasher.putBytes(buffer, offset, read);
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(long count) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+}
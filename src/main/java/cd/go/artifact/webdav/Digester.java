@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.hash.Hasher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The {@link Digester} computes the digest of a published file while its content is sent, so that
+ * the file isn't read a second time. A repeatable entity may be written more than once, e.g. after
+ * an authentication challenge, each write starts a new digest.
+ */
+class Digester {
+
+  private final Checksum checksum;
+
+  private Hasher hasher;
+  private String value;
+
+  /**
+   * Constructs an instance of {@link Digester}.
+   *
+   * @param checksum
+   */
+  Digester(Checksum checksum) {
+    this.checksum = checksum;
+  }
+
+  /**
+   * Get the digest of the content written last, or <code>null</code> if it isn't complete.
+   */
+  public final String getValue() {
+    return value;
+  }
+
+  /**
+   * Starts the digest of the content that is written next.
+   */
+  public final void start() {
+    hasher = checksum.getFunction().newHasher();
+    value = null;
+  }
+
+  /**
+   * Hashes a region of the buffer.
+   *
+   * @param buffer
+   * @param offset
+   * @param length
+   */
+  public final void update(byte[] buffer, int offset, int length) {
+    hasher.putBytes(buffer, offset, length);
+  }
+
+  /**
+   * Completes the digest, after all content has been written.
+   */
+  public final void finish() {
+    value = hasher.hash().toString();
+  }
+
+  /**
+   * Starts the digest and wraps the stream, so that all bytes read are hashed.
+   *
+   * @param stream
+   */
+  public final InputStream tee(InputStream stream) {
+    start();
+    return Digest.tee(stream, hasher);
+  }
+
+  /**
+   * Starts the digest and wraps the stream, so that all bytes written are hashed.
+   *
+   * @param stream
+   */
+  public final OutputStream tee(OutputStream stream) {
+    start();
+    return new FilterOutputStream(stream) {
+
+      @Override
+      public void write(int value) throws IOException {
+        out.write(value);
+        hasher.putByte((byte) value);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        hasher.putBytes(buffer, offset, length);
+      }
+    };
+  }
+
+  /**
+   * Get the content of the sidecar for the named file, like the output of <code>sha256sum</code>.
+   *
+   * @param value
+   * @param name
+   */
+  static String toSidecar(String value, String name) {
+    return String.format("%s  %s\n", value, name);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The {@link FetchIndex} records the ETag and Last-Modified of the files, that have been fetched
+ * into a directory. The index is stored as <code>.webdav-fetch</code> in the directory. A file that
+ * is fetched again is requested conditionally, an unchanged file isn't transferred at all.
+ *
+ * An entry is only valid as long as the local file has the length and modification time that have
+ * been recorded, a file that has been modified locally is fetched again.
+ */
+public class FetchIndex {
+
+  private static final String NAME = ".webdav-fetch";
+  private static final String TEMP = ".tmp";
+
+
+  private final File       directory;
+  private final Properties entries = new Properties();
+
+  /**
+   * Constructs an instance of {@link FetchIndex}.
+   *
+   * @param directory
+   */
+  private FetchIndex(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Get the file that has been stored for the file, or <code>null</code> if it is unknown or has
+   * changed.
+   *
+   * @param file
+   */
+  public final File getTarget(File file) {
+    String[] entry = getEntry(file);
+    return (entry == null) ? null : new File(directory, entry[0]);
+  }
+
+  /**
+   * Get the ETag of the file, or <code>null</code> if it is unknown or the file has changed.
+   *
+   * @param file
+   */
+  public final String getETag(File file) {
+    String[] entry = getEntry(file);
+    return (entry == null || entry[3].isEmpty()) ? null : entry[3];
+  }
+
+  /**
+   * Get the Last-Modified of the file, or <code>null</code> if it is unknown or the file has
+   * changed.
+   *
+   * @param file
+   */
+  public final String getLastModified(File file) {
+    String[] entry = getEntry(file);
+    return (entry == null || entry[4].isEmpty()) ? null : entry[4];
+  }
+
+  /**
+   * Records the ETag and Last-Modified of the resource, that has been fetched for the file. The
+   * target is the file, that has actually been stored, a decompressed file has no suffix.
+   *
+   * @param file
+   * @param target
+   * @param etag
+   * @param lastModified
+   */
+  public final void record(File file, File target, String etag, String lastModified) {
+    if (etag == null && lastModified == null) {
+      entries.remove(getKey(file));
+      return;
+    }
+    entries.setProperty(getKey(file), String.join("\t", getKey(target), Long.toString(target.length()),
+        Long.toString(target.lastModified()), (etag == null) ? "" : etag, (lastModified == null) ? "" : lastModified));
+  }
+
+  /**
+   * Writes the index into a temporary file, that replaces the index atomically.
+   */
+  public final void save() throws IOException {
+    if (entries.isEmpty()) {
+      return;
+    }
+    directory.mkdirs();
+    File temp = new File(directory, NAME + TEMP);
+    try (OutputStream stream = Files.newOutputStream(temp.toPath())) {
+      entries.store(stream, null);
+    }
+    Files.move(temp.toPath(), new File(directory, NAME).toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Get the valid entry of the file: the target, its length and modification time, the ETag and
+   * the Last-Modified.
+   *
+   * @param file
+   */
+  private String[] getEntry(File file) {
+    String value = entries.getProperty(getKey(file));
+    String[] entry = (value == null) ? null : value.split("\t", -1);
+    if (entry == null || entry.length != 5) {
+      return null;
+    }
+    File target = new File(directory, entry[0]);
+    return (target.isFile() && Long.toString(target.length()).equals(entry[1])
+        && Long.toString(target.lastModified()).equals(entry[2])) ? entry : null;
+  }
+
+  /**
+   * Get the key of the file, its path relative to the directory.
+   *
+   * @param file
+   */
+  private String getKey(File file) {
+    return directory.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+  }
+
+  /**
+   * Loads the index of the directory. A missing or unreadable index is empty.
+   *
+   * @param directory
+   */
+  public static FetchIndex load(File directory) {
+    FetchIndex index = new FetchIndex(directory);
+    File file = new File(directory, NAME);
+    if (file.exists()) {
+      try (InputStream stream = Files.newInputStream(file.toPath())) {
+        index.entries.load(stream);
+      } catch (IOException | IllegalArgumentException e) {
+        index.entries.clear();
+      }
+    }
+    return index;
+  }
+}
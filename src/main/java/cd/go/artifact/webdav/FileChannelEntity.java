@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@link FileChannelEntity} sends a region of a file through a {@link FileChannel}. The entity
+ * declares its Content-Length and is repeatable, so that the request can be replayed after an
+ * authentication challenge or a redirect. The content is copied with a single large buffer per
+ * write, instead of the small buffers of a stream. A {@link Digester} hashes the content while it
+ * is sent.
+ */
+public class FileChannelEntity extends AbstractHttpEntity {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+
+  private final File     file;
+  private final long     offset;
+  private final long     length;
+  private final Digester digester;
+
+  /**
+   * Constructs an instance of {@link FileChannelEntity} for the whole file.
+   *
+   * @param file
+   */
+  public FileChannelEntity(File file) {
+    this(file, 0, file.length(), null);
+  }
+
+  /**
+   * Constructs an instance of {@link FileChannelEntity} for the whole file, that is hashed by the
+   * {@link Digester} while it is sent.
+   *
+   * @param file
+   * @param digester
+   */
+  FileChannelEntity(File file, Digester digester) {
+    this(file, 0, file.length(), digester);
+  }
+
+  /**
+   * Constructs an instance of {@link FileChannelEntity} for a region of the file.
+   *
+   * @param file
+   * @param offset
+   * @param length
+   */
+  public FileChannelEntity(File file, long offset, long length) {
+    this(file, offset, length, null);
+  }
+
+  /**
+   * Constructs an instance of {@link FileChannelEntity} for a region of the file, that is hashed by
+   * the {@link Digester} while it is sent, if there is one.
+   *
+   * @param file
+   * @param offset
+   * @param length
+   * @param digester
+   */
+  FileChannelEntity(File file, long offset, long length, Digester digester) {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    this.digester = digester;
+  }
+
+  /**
+   * Tells if the entity is capable of producing its data more than once.
+   */
+  @Override
+  public final boolean isRepeatable() {
+    return true;
+  }
+
+  /**
+   * Tells the length of the content.
+   */
+  @Override
+  public final long getContentLength() {
+    return length;
+  }
+
+  /**
+   * Tells whether this entity depends on an underlying stream.
+   */
+  @Override
+  public final boolean isStreaming() {
+    return false;
+  }
+
+  /**
+   * Returns a content stream of the entity.
+   */
+  @Override
+  public final InputStream getContent() throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    channel.position(offset);
+    return ByteStreams.limit(Channels.newInputStream(channel), length);
+  }
+
+  /**
+   * Writes the entity content to the output stream.
+   *
+   * @param stream
+   */
+  @Override
+  public final void writeTo(OutputStream stream) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+      long position = offset;
+      long remaining = length;
+      if (digester != null) {
+        digester.start();
+      }
+      while (remaining > 0) {
+        buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+        int read = channel.read(buffer, position);
+        if (read < 0) {
+          throw new IOException(String.format("File '%s' truncated while uploading", file));
+        }
+        stream.write(buffer.array(), 0, read);
+        if (digester != null) {
+          digester.update(buffer.array(), 0, read);
+        }
+        position += read;
+        remaining -= read;
+      }
+      stream.flush();
+      if (digester != null) {
+        digester.finish();
+      }
+    }
+  }
+}
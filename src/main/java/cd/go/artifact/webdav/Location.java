@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link Location} describes a single destination of a publish: the remote path, the type of
+ * the published source and its size. The locations of a publish are passed to the fetch as a
+ * compact text, with one line per location. The size of a bundle is unknown while it is written, so
+ * that it is recorded as -1:
+ *
+ * <pre>
+ * f 1024 build/app.jar
+ * d 52311 build/docs
+ * b -1 build/lib.tar.gz
+ * </pre>
+ */
+public class Location {
+
+  /**
+   * The {@link Type} of a published source.
+   */
+  public enum Type {
+
+    FILE('f'),
+    DIRECTORY('d'),
+    BUNDLE('b');
+
+    private final char code;
+
+    private Type(char code) {
+      this.code = code;
+    }
+
+    /**
+     * Get the {@link Type} of the code.
+     *
+     * @param code
+     */
+    private static Type of(char code) {
+      for (Type type : Type.values()) {
+        if (type.code == code) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException(String.format("Invalid location type '%s'", code));
+    }
+  }
+
+
+  private final Type   type;
+  private final String path;
+  private final long   size;
+
+  /**
+   * Constructs an instance of {@link Location}.
+   *
+   * @param type
+   * @param path
+   * @param size
+   */
+  public Location(Type type, String path, long size) {
+    this.type = type;
+    this.path = path;
+    this.size = size;
+  }
+
+  /**
+   * Get the {@link Type} of the published source.
+   */
+  public final Type getType() {
+    return type;
+  }
+
+  /**
+   * Get the remote path.
+   */
+  public final String getPath() {
+    return path;
+  }
+
+  /**
+   * Get the size of the published source, or -1 if it is unknown.
+   */
+  public final long getSize() {
+    return size;
+  }
+
+  /**
+   * Get the last name of the remote path.
+   */
+  public final String getName() {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Formats the location as a single line.
+   */
+  @Override
+  public final String toString() {
+    return String.format("%s %d %s", type.code, size, path);
+  }
+
+  /**
+   * Get the common parent directory of the remote paths, including the trailing slash. Each
+   * location is fetched to its path relative to the base, so that locations with the same name
+   * don't collide.
+   *
+   * @param locations
+   */
+  public static String getBase(List<Location> locations) {
+    return ContentStore.getBase(locations.stream().map(Location::getPath).collect(Collectors.toList()));
+  }
+
+  /**
+   * Formats the locations with one line per location.
+   *
+   * @param locations
+   */
+  public static String format(List<Location> locations) {
+    return locations.stream().map(Location::toString).collect(Collectors.joining("\n"));
+  }
+
+  /**
+   * Parses the locations from the text. The remote paths must be relative, without empty or parent
+   * segments, so that a location can't point outside of the working directory.
+   *
+   * @param text
+   */
+  public static List<Location> parse(String text) {
+    List<Location> locations = new ArrayList<>();
+    for (String line : text.split("\n")) {
+      String[] values = line.trim().split(" ", 3);
+      if (line.trim().isEmpty()) {
+        continue;
+      } else if (values.length != 3 || values[0].length() != 1 || !Location.isRelative(values[2])) {
+        throw new IllegalArgumentException(String.format("Invalid location '%s'", line));
+      }
+      locations.add(new Location(Type.of(values[0].charAt(0)), values[2], Long.parseLong(values[1])));
+    }
+    return locations;
+  }
+
+  /**
+   * Returns <code>true</code> if the path is relative and has neither empty nor parent segments.
+   *
+   * @param path
+   */
+  private static boolean isRelative(String path) {
+    List<String> names = Arrays.asList(path.split("/", -1));
+    return !names.contains("") && !names.contains("..");
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.impl.SardineException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cd.go.artifact.Console;
+
+/**
+ * The {@link RangedDownload} fetches a large file with several byte-range requests at the same
+ * time, so that the throughput isn't limited to a single connection. The partial file of the
+ * {@link ResumableDownload} is preallocated, the ranges are written at their position by the
+ * workers of the {@link TransferQueue}.
+ *
+ * The ranges are requested with an <code>If-Range</code> of the strong ETag, a server that answers
+ * with the full content, because the file has changed in between, fails the download. The stored
+ * ranges are recorded, so that a later attempt only requests the missing ranges.
+ *
+ * A file that is recorded in the {@link FetchIndex} is probed with a conditional HEAD, an unchanged
+ * file isn't requested at all.
+ */
+class RangedDownload {
+
+  private static final long MIN_RANGE = 1024 * 1024;
+
+  private static final String LENGTH    = "length";
+  private static final String RANGESIZE = "rangeSize";
+
+  private static final int    RETRIES   = 3;
+
+
+  private final WebDAV  webdav;
+  private final Console console;
+
+  /**
+   * Constructs an instance of {@link RangedDownload}.
+   *
+   * @param webdav
+   * @param console
+   */
+  RangedDownload(WebDAV webdav, Console console) {
+    this.webdav = webdav;
+    this.console = console;
+  }
+
+  /**
+   * Queues the download of the file in ranges. Returns <code>false</code> if the resource doesn't
+   * exist as a plain file, is not larger than the threshold or the server doesn't accept ranges. A
+   * file, whose validators match the {@link FetchIndex}, is kept.
+   *
+   * @param path
+   * @param file
+   * @param key
+   * @param sidecar
+   * @param threshold
+   * @param ranges
+   * @param sync
+   */
+  public final boolean pull(String path, File file, String key, String sidecar, long threshold, int ranges,
+      boolean sync) throws IOException {
+    String resource = webdav.getResource(path);
+    FetchIndex fetched = webdav.getFetchIndex();
+    File target = (fetched == null) ? null : fetched.getTarget(file);
+    HttpHead request = new HttpHead(resource);
+    if (target != null) {
+      if (fetched.getETag(file) != null) {
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, fetched.getETag(file));
+      }
+      if (fetched.getLastModified(file) != null) {
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, fetched.getLastModified(file));
+      }
+    }
+    HttpResponse response = webdav.getSardine().send(request);
+    EntityUtils.consumeQuietly(response.getEntity());
+
+    if (target != null && (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+        || (fetched.getETag(file) != null && fetched.getETag(file).equals(ResumableDownload.getStrongETag(response))))) {
+      webdav.getSummary().addKept(1, target.length());
+      console.info("File '%s' is unchanged", target.getAbsolutePath());
+      return true;
+    }
+
+    Header accept = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+    Header length = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+    if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || accept == null
+        || !"bytes".equalsIgnoreCase(accept.getValue().trim()) || length == null) {
+      return false;
+    }
+
+    long size = Long.parseLong(length.getValue().trim());
+    if (size <= threshold) {
+      return false;
+    }
+
+    String etag = ResumableDownload.getStrongETag(response);
+    Header modified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+    String lastModified = (modified == null) ? null : modified.getValue();
+    int count = (int) Math.max(1, Math.min(ranges, size / MIN_RANGE));
+    long rangeSize = (size + count - 1) / count;
+
+    file.getParentFile().mkdirs();
+    File part = ResumableDownload.getPart(file);
+    Properties state = ResumableDownload.loadState(file);
+    Set<String> completed = new HashSet<>();
+    if (etag != null && etag.equals(state.getProperty(ResumableDownload.ETAG))
+        && Long.toString(size).equals(state.getProperty(LENGTH))
+        && state.getProperty(RANGESIZE, "").equals(Long.toString(rangeSize)) && part.length() == size) {
+      completed.addAll(Arrays.asList(state.getProperty(ResumableDownload.RANGES, "").split(",")));
+      completed.remove("");
+    } else {
+      state.clear();
+      if (etag != null) {
+        state.setProperty(ResumableDownload.ETAG, etag);
+        state.setProperty(LENGTH, Long.toString(size));
+        state.setProperty(RANGESIZE, Long.toString(rangeSize));
+        state.setProperty(ResumableDownload.RANGES, "");
+      }
+      ResumableDownload.storeState(file, state);
+    }
+
+    try (RandomAccessFile output = new RandomAccessFile(part, "rw")) {
+      output.setLength(size);
+    }
+
+    AtomicInteger remaining = new AtomicInteger(count - completed.size());
+    long started = System.nanoTime();
+    console.info("Storing file to '%s' in %d ranges of %s, %d already stored", file.getAbsolutePath(), count,
+        TransferSummary.toSize(rangeSize), completed.size());
+    if (remaining.get() == 0) {
+      webdav.getQueue().submit(() -> {
+        verify(path, file, sidecar);
+        complete(file, key, etag, lastModified, size, sync, started);
+      });
+      return true;
+    }
+
+    for (int index = 0; index < count; index++) {
+      if (completed.contains(Integer.toString(index))) {
+        continue;
+      }
+
+      int range = index;
+      long offset = index * rangeSize;
+      long rangeLength = Math.min(rangeSize, size - offset);
+      webdav.getQueue().submit(() -> {
+        fetch(resource, part, offset, rangeLength, etag, sync);
+        record(file, state, range);
+        if (remaining.decrementAndGet() == 0) {
+          verify(path, file, sidecar);
+          complete(file, key, etag, lastModified, size, sync, started);
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Fetches a single range, repeating the request on network or server errors.
+   *
+   * @param resource
+   * @param file
+   * @param offset
+   * @param length
+   * @param etag
+   * @param sync
+   */
+  private void fetch(String resource, File file, long offset, long length, String etag, boolean sync)
+      throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try {
+        fetchRange(resource, file, offset, length, etag, sync);
+        return;
+      } catch (SardineException e) {
+        if (e.getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR || attempt == RETRIES) {
+          throw e;
+        }
+      } catch (IOException e) {
+        if (attempt == RETRIES) {
+          throw e;
+        }
+      }
+      console.info("Retry range %d-%d of '%s'", offset, offset + length - 1, resource);
+    }
+  }
+
+  /**
+   * Fetches a single range and writes it at its position into the file.
+   *
+   * @param resource
+   * @param file
+   * @param offset
+   * @param length
+   * @param etag
+   * @param sync
+   */
+  private void fetchRange(String resource, File file, long offset, long length, String etag, boolean sync)
+      throws IOException {
+    HttpGet request = new HttpGet(resource);
+    request.setHeader(HttpHeaders.RANGE, String.format("bytes=%d-%d", offset, offset + length - 1));
+    if (etag != null) {
+      request.setHeader(HttpHeaders.IF_RANGE, etag);
+    }
+
+    HttpResponse response = webdav.getSardine().send(request);
+    int status = response.getStatusLine().getStatusCode();
+    if (status != HttpStatus.SC_PARTIAL_CONTENT || !ResumableDownload.isRangeOf(response, offset)) {
+      request.abort();
+      String message = String.format("Range %d-%d of '%s' not served", offset, offset + length - 1, resource);
+      throw new SardineException(message, status, response.getStatusLine().getReasonPhrase());
+    }
+
+    long received;
+    try (InputStream stream = response.getEntity().getContent();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      received = BlockCopy.copy(stream, channel, offset);
+      if (sync) {
+        channel.force(false);
+      }
+    }
+    if (received != length) {
+      throw new IOException(String.format("Range %d-%d of '%s' has %d bytes", offset, offset + length - 1, resource,
+          received));
+    }
+  }
+
+  /**
+   * Verifies the partial file with its {@link Digest}, if there is one. The ranges aren't written
+   * in sequence, so the file is hashed once it is complete. A file that doesn't match is discarded.
+   *
+   * @param path
+   * @param file
+   * @param sidecar
+   */
+  private void verify(String path, File file, String sidecar) throws IOException {
+    Digest digest = webdav.getDigest(path, sidecar);
+    if (digest == null) {
+      return;
+    }
+
+    File part = ResumableDownload.getPart(file);
+    try {
+      digest.verify(part);
+    } catch (IOException e) {
+      ResumableDownload.storeState(file, new Properties());
+      Files.deleteIfExists(part.toPath());
+      throw e;
+    }
+  }
+
+  /**
+   * Records the stored range, if the download can be resumed.
+   *
+   * @param file
+   * @param state
+   * @param range
+   */
+  private void record(File file, Properties state, int range) throws IOException {
+    synchronized (state) {
+      if (!state.isEmpty()) {
+        String ranges = state.getProperty(ResumableDownload.RANGES);
+        state.setProperty(ResumableDownload.RANGES, ranges.isEmpty() ? Integer.toString(range) : ranges + "," + range);
+        ResumableDownload.storeState(file, state);
+      }
+    }
+  }
+
+  /**
+   * Verifies the partial file, once all ranges are stored, and moves it into place.
+   *
+   * @param file
+   * @param key
+   * @param etag
+   * @param lastModified
+   * @param size
+   * @param sync
+   * @param started
+   */
+  private void complete(File file, String key, String etag, String lastModified, long size, boolean sync,
+      long started) throws IOException {
+    File part = ResumableDownload.getPart(file);
+    if (part.length() != size) {
+      throw new IOException(String.format("File '%s' has %d bytes instead of %d", part, part.length(), size));
+    }
+    if (sync) {
+      try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+    }
+    ResumableDownload.complete(file);
+    webdav.record(file, file, etag, lastModified);
+    webdav.getSummary().addDownloaded(1, size);
+    webdav.cache(key, file);
+    console.info("File '%s' stored, %s in %s.", file.getAbsolutePath(), TransferSummary.toSize(size),
+        TransferSummary.toDuration(size, System.nanoTime() - started));
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.impl.SardineException;
+import com.google.common.hash.Hasher;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import cd.go.artifact.Console;
+
+/**
+ * The {@link ResumableDownload} stores a file into the sibling <code>&lt;file&gt;.part</code> and
+ * renames it into place once it is complete, so that a partial file is never visible under its
+ * final name. The ETag of the resource is recorded in <code>&lt;file&gt;.part.state</code>.
+ *
+ * If the download fails, the next attempt continues at the end of the partial file with a
+ * <code>Range</code> request. The <code>If-Range</code> header makes the server send the whole
+ * resource instead, if it has changed in between.
+ *
+ * A file that is recorded in the {@link FetchIndex} is requested with <code>If-None-Match</code>
+ * and <code>If-Modified-Since</code>, the body isn't transferred if the file is unchanged. The
+ * content is hashed while it is stored, if a {@link Digest} is expected. A file that doesn't match
+ * is discarded and fetched once more.
+ */
+class ResumableDownload {
+
+  static final String PART = ".part";
+
+  static final long   NOT_MODIFIED = -2;
+
+  private static final String STATE = ".state";
+
+  static final String ETAG         = "etag";
+  static final String LASTMODIFIED = "lastModified";
+  static final String RANGES       = "ranges";
+
+  private static final int RETRIES = 3;
+
+
+  private final WebDAV  webdav;
+  private final Console console;
+
+  /**
+   * Constructs an instance of {@link ResumableDownload}.
+   *
+   * @param webdav
+   * @param console
+   */
+  ResumableDownload(WebDAV webdav, Console console) {
+    this.webdav = webdav;
+    this.console = console;
+  }
+
+  /**
+   * Downloads the resource into the file and returns the number of bytes. A failed request is
+   * resumed up to 3 times. Returns -1 if there is no resource on the path, or
+   * {@link #NOT_MODIFIED} if the file is unchanged.
+   *
+   * @param path
+   * @param file
+   * @param sync
+   * @param digest
+   */
+  public final long pull(String path, File file, boolean sync, Digest digest) throws IOException {
+    file.getParentFile().mkdirs();
+    String resource = webdav.getResource(path);
+    Properties state = ResumableDownload.loadState(file);
+    if (state.containsKey(RANGES)) {
+      state.clear(); // The partial file of a ranged download has gaps
+    }
+
+    for (int attempt = 1;; attempt++) {
+      try {
+        long length = fetch(resource, file, state, sync, digest);
+        if (length >= 0) {
+          ResumableDownload.complete(file);
+          webdav.record(file, file, state.getProperty(ETAG), state.getProperty(LASTMODIFIED));
+        }
+        return length;
+      } catch (SardineException e) {
+        if (e.getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR || attempt == RETRIES) {
+          throw e;
+        }
+      } catch (IOException e) {
+        if (attempt == RETRIES) {
+          throw e;
+        }
+      }
+      console.info("Resume download of '%s' at %s", path,
+          TransferSummary.toSize(ResumableDownload.getPart(file).length()));
+    }
+  }
+
+  /**
+   * Fetches the resource into the partial file. The request continues at the end of the partial
+   * file, if the ETag of the former attempt is known.
+   *
+   * @param resource
+   * @param file
+   * @param state
+   * @param sync
+   * @param digest
+   */
+  private long fetch(String resource, File file, Properties state, boolean sync, Digest digest)
+      throws IOException {
+    File part = ResumableDownload.getPart(file);
+    String etag = state.getProperty(ETAG);
+    long offset = (etag != null && part.exists()) ? part.length() : 0;
+
+    FetchIndex index = webdav.getFetchIndex();
+    HttpGet request = new HttpGet(resource);
+    if (offset > 0) {
+      request.setHeader(HttpHeaders.RANGE, String.format("bytes=%d-", offset));
+      request.setHeader(HttpHeaders.IF_RANGE, etag);
+    } else if (index != null && index.getTarget(file) != null) {
+      if (index.getETag(file) != null) {
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, index.getETag(file));
+      }
+      if (index.getLastModified(file) != null) {
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, index.getLastModified(file));
+      }
+    }
+
+    HttpResponse response = webdav.getSardine().send(request);
+    int status = response.getStatusLine().getStatusCode();
+    if (status == HttpStatus.SC_NOT_MODIFIED && offset == 0) {
+      EntityUtils.consumeQuietly(response.getEntity());
+      return NOT_MODIFIED;
+    } else if (status == HttpStatus.SC_PARTIAL_CONTENT && ResumableDownload.isRangeOf(response, offset)) {
+      console.info("Continue file '%s' at %s", file.getAbsolutePath(), TransferSummary.toSize(offset));
+    } else if (status == HttpStatus.SC_OK) {
+      offset = 0;
+      state.clear();
+      etag = ResumableDownload.getStrongETag(response);
+      if (etag != null) {
+        state.setProperty(ETAG, etag);
+      }
+      Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+      if (lastModified != null) {
+        state.setProperty(LASTMODIFIED, lastModified.getValue());
+      }
+      ResumableDownload.storeState(file, state);
+      console.info("Storing file to '%s'", file.getAbsolutePath());
+    } else if (offset > 0 && (status == HttpStatus.SC_PARTIAL_CONTENT
+        || status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE)) {
+      request.abort();
+      state.clear();
+      Files.deleteIfExists(part.toPath());
+      return fetch(resource, file, state, sync, digest);
+    } else {
+      request.abort();
+      if (status == HttpStatus.SC_NOT_FOUND) {
+        return -1;
+      }
+      throw new SardineException("Unexpected response", status, response.getStatusLine().getReasonPhrase());
+    }
+
+    Hasher hasher = (digest == null) ? null : digest.newHasher();
+    if (hasher != null && offset > 0) {
+      Digest.update(hasher, part, offset);
+    }
+
+    long length;
+    try (InputStream stream = response.getEntity().getContent();
+        FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.truncate(offset);
+      length = offset + BlockCopy.copy((hasher == null) ? stream : Digest.tee(stream, hasher), channel, offset);
+      if (sync) {
+        channel.force(true);
+      }
+    }
+
+    if (hasher != null) {
+      try {
+        digest.verify(hasher, file);
+      } catch (IOException e) {
+        state.clear();
+        ResumableDownload.storeState(file, state);
+        Files.deleteIfExists(part.toPath());
+        throw e;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Get the partial file, that is stored until the download is complete.
+   *
+   * @param file
+   */
+  static File getPart(File file) {
+    return new File(file.getParentFile(), file.getName() + PART);
+  }
+
+  /**
+   * Moves the partial file to the file, replacing an existing file atomically, and removes the
+   * recorded state.
+   *
+   * @param file
+   */
+  static void complete(File file) throws IOException {
+    Files.move(ResumableDownload.getPart(file).toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    Files.deleteIfExists(ResumableDownload.getState(file).toPath());
+  }
+
+  /**
+   * Loads the recorded state of a former download of the file. A missing or unreadable state is
+   * empty.
+   *
+   * @param file
+   */
+  static Properties loadState(File file) {
+    Properties state = new Properties();
+    File stateFile = ResumableDownload.getState(file);
+    if (stateFile.exists() && ResumableDownload.getPart(file).exists()) {
+      try (InputStream stream = new FileInputStream(stateFile)) {
+        state.load(stream);
+      } catch (IOException | IllegalArgumentException e) {
+        state.clear();
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Records the state of the download of the file. An empty state is removed.
+   *
+   * @param file
+   * @param state
+   */
+  static void storeState(File file, Properties state) throws IOException {
+    File stateFile = ResumableDownload.getState(file);
+    if (state.isEmpty()) {
+      Files.deleteIfExists(stateFile.toPath());
+      return;
+    }
+    try (OutputStream stream = new FileOutputStream(stateFile)) {
+      state.store(stream, null);
+    }
+  }
+
+  /**
+   * Get the ETag of the response, or <code>null</code> if there is none or it is weak. A weak ETag
+   * can't be used with <code>If-Range</code>.
+   *
+   * @param response
+   */
+  static String getStrongETag(HttpResponse response) {
+    Header header = response.getFirstHeader(HttpHeaders.ETAG);
+    return (header == null || header.getValue().startsWith("W/")) ? null : header.getValue();
+  }
+
+  /**
+   * Returns <code>true</code> if the Content-Range of the response starts at the offset.
+   *
+   * @param response
+   * @param offset
+   */
+  static boolean isRangeOf(HttpResponse response, long offset) {
+    Header header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+    return header != null && header.getValue().trim().startsWith(String.format("bytes %d-", offset));
+  }
+
+  /**
+   * Get the file, that records the state of the download.
+   *
+   * @param file
+   */
+  private static File getState(File file) {
+    return new File(file.getParentFile(), file.getName() + PART + STATE);
+  }
+}
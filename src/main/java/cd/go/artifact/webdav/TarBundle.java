@@ -0,0 +1,517 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.http.entity.ContentProducer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+import cd.go.artifact.util.Excludes;
+
+/**
+ * The {@link TarBundle} streams a directory tree as a single tar archive (POSIX ustar with pax
+ * headers for long names and large files), so that a tree of many small files is sent with a
+ * single request. The archive is written while it is sent and extracted while it is read, neither
+ * side needs a temporary file.
+ *
+ * Symbolic links are archived as links and aren't followed, so that a cycle doesn't recurse and
+ * the content of a file outside of the tree doesn't get into the archive. Links to a target outside
+ * of the tree are skipped. A link is only extracted, if its target stays within the directory, and
+ * no entry is extracted through a link.
+ */
+public class TarBundle {
+
+  public static final String SUFFIX = ".tar";
+
+  private static final int    BLOCK     = 512;
+  private static final long   MAX_SIZE  = 077777777777L;
+  private static final byte   FILE      = '0';
+  private static final byte   SYMLINK   = '2';
+  private static final byte   DIRECTORY = '5';
+  private static final byte   PAX       = 'x';
+  private static final byte[] PADDING   = new byte[BLOCK];
+
+  /**
+   * Get the suffix of a bundle with the {@link Compression}.
+   *
+   * @param compression
+   */
+  public static String getSuffix(Compression compression) {
+    return (compression == Compression.NONE) ? SUFFIX : SUFFIX + Compression.SUFFIX;
+  }
+
+  /**
+   * The {@link Archive} writes the directory as archive each time the entity is sent. The entries
+   * of the archive start with the root name, excluded files and directories are skipped. The
+   * {@link Digester} hashes the archive as it is sent, if there is one. A repeated request writes
+   * the archive again, only the files of the last write are counted.
+   */
+  static class Archive implements ContentProducer {
+
+    private final File        directory;
+    private final String      root;
+    private final Compression compression;
+    private final Excludes    excludes;
+    private final Digester    digester;
+
+    private volatile TransferSummary written = new TransferSummary();
+
+    /**
+     * Constructs an instance of {@link Archive}.
+     *
+     * @param directory
+     * @param root
+     * @param compression
+     * @param excludes
+     * @param digester
+     */
+    Archive(File directory, String root, Compression compression, Excludes excludes, Digester digester) {
+      this.directory = directory;
+      this.root = root;
+      this.compression = compression;
+      this.excludes = excludes;
+      this.digester = digester;
+    }
+
+    /**
+     * Get the {@link TransferSummary} of the files written last.
+     */
+    public final TransferSummary getWritten() {
+      return written;
+    }
+
+    /**
+     * Writes the archive to the entity.
+     *
+     * @param entity
+     */
+    @Override
+    public final void writeTo(OutputStream entity) throws IOException {
+      TransferSummary summary = new TransferSummary();
+      OutputStream stream = (digester == null) ? entity : digester.tee(entity);
+      if (compression == Compression.NONE) {
+        TarBundle.write(directory, root, excludes, stream, summary);
+      } else {
+        try (DeflaterOutputStream gzip = compression.compress(stream)) {
+          TarBundle.write(directory, root, excludes, gzip, summary);
+          gzip.finish();
+        }
+      }
+      stream.flush();
+      if (digester != null) {
+        digester.finish();
+      }
+      written = summary;
+    }
+  }
+
+  /**
+   * Extracts the archive into the directory. Entries that would be stored outside of the
+   * directory, or through a link, and links to a target outside of the directory are rejected.
+   *
+   * @param stream
+   * @param directory
+   * @param sync
+   * @param summary
+   */
+  public static void extract(InputStream stream, File directory, boolean sync, TransferSummary summary)
+      throws IOException {
+    byte[] header = new byte[BLOCK];
+    Map<String, String> pax = new HashMap<>();
+    Path base = Files.createDirectories(directory.toPath()).toRealPath();
+
+    while (ByteStreams.read(stream, header, 0, BLOCK) == BLOCK && !TarBundle.isEmpty(header)) {
+      byte type = header[156];
+      String name = pax.getOrDefault("path", TarBundle.getName(header));
+      String link = pax.getOrDefault("linkpath", TarBundle.getString(header, 157, 100));
+      long size = Long.parseLong(pax.getOrDefault("size", Long.toString(TarBundle.getOctal(header, 124, 12))));
+      pax.clear();
+
+      if (type == PAX) {
+        TarBundle.parsePax(TarBundle.readData(stream, size), pax);
+        continue;
+      } else if (type == DIRECTORY) {
+        File file = TarBundle.resolve(directory, name);
+        file.mkdirs();
+        TarBundle.checkParent(base, file.toPath());
+      } else if (type == SYMLINK) {
+        Path file = TarBundle.resolve(directory, name).toPath();
+        Files.createDirectories(file.getParent());
+        TarBundle.checkParent(base, file);
+        if (!TarBundle.isWithin(base, file.getParent().toRealPath().resolve(file.getFileName()), link)) {
+          throw new IOException(String.format("Invalid link '%s' to '%s' in bundle", name, link));
+        }
+        Files.deleteIfExists(file);
+        Files.createSymbolicLink(file, Paths.get(link));
+      } else if (type == FILE || type == 0) {
+        File file = TarBundle.resolve(directory, name);
+        file.getParentFile().mkdirs();
+        TarBundle.checkParent(base, file.toPath());
+        if (BlockCopy.copy(ByteStreams.limit(stream, size), file, sync) != size) {
+          throw new IOException(String.format("Bundle truncated at '%s'", name));
+        }
+        file.setLastModified(TarBundle.getOctal(header, 136, 12) * 1000);
+        if ((TarBundle.getOctal(header, 100, 8) & 0100) != 0) {
+          file.setExecutable(true);
+        }
+        TarBundle.skipPadding(stream, size);
+        summary.addDownloaded(1, size);
+        continue;
+      }
+      ByteStreams.skipFully(stream, size);
+      TarBundle.skipPadding(stream, size);
+    }
+  }
+
+  /**
+   * Writes the directory tree as tar archive to the stream.
+   *
+   * @param directory
+   * @param root
+   * @param excludes
+   * @param stream
+   * @param summary
+   */
+  static void write(File directory, String root, Excludes excludes, OutputStream stream, TransferSummary summary)
+      throws IOException {
+    Path path = directory.toPath().toAbsolutePath().normalize();
+    TarBundle.writeEntry(path, path, Files.readAttributes(path, BasicFileAttributes.class), root + "/", excludes,
+        stream, summary);
+    stream.write(PADDING);
+    stream.write(PADDING);
+  }
+
+  /**
+   * Writes the file or directory recursively to the stream. The attributes of each entry are read
+   * once, without following links. A link within the tree is written as link, other links and
+   * special files are skipped.
+   *
+   * @param tree
+   * @param file
+   * @param attributes
+   * @param name
+   * @param excludes
+   * @param stream
+   * @param summary
+   */
+  private static void writeEntry(Path tree, Path file, BasicFileAttributes attributes, String name,
+      Excludes excludes, OutputStream stream, TransferSummary summary) throws IOException {
+    long modified = attributes.lastModifiedTime().toMillis();
+    if (attributes.isSymbolicLink()) {
+      String target = Files.readSymbolicLink(file).toString().replace(File.separatorChar, '/');
+      if (TarBundle.isWithin(tree, file, target)) {
+        TarBundle.writeHeader(name, SYMLINK, 0777, 0, modified, target, stream);
+        summary.addUploaded(1, 0);
+      }
+      return;
+    } else if (attributes.isDirectory()) {
+      TarBundle.writeHeader(name, DIRECTORY, 0755, 0, modified, "", stream);
+      List<Path> children = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(file)) {
+        entries.forEach(children::add);
+      }
+      children.sort(null);
+      for (Path child : children) {
+        BasicFileAttributes values = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        boolean directory = values.isDirectory();
+        if (!excludes.isExcluded(child, directory)) {
+          String childName = name + child.getFileName() + (directory ? "/" : "");
+          TarBundle.writeEntry(tree, child, values, childName, excludes, stream, summary);
+        }
+      }
+      return;
+    } else if (!attributes.isRegularFile()) {
+      return;
+    }
+
+    long size = attributes.size();
+    int mode = Files.isExecutable(file) ? 0755 : 0644;
+    TarBundle.writeHeader(name, FILE, mode, size, modified, "", stream);
+    if (Files.copy(file, stream) != size) {
+      throw new IOException(String.format("File '%s' changed while bundling", file));
+    }
+    stream.write(PADDING, 0, TarBundle.getPadding(size));
+    summary.addUploaded(1, size);
+  }
+
+  /**
+   * Writes the header of an entry. A pax header is written first, if the name or the size don't
+   * fit into the ustar header.
+   *
+   * @param name
+   * @param type
+   * @param mode
+   * @param size
+   * @param modified
+   * @param link
+   * @param stream
+   */
+  private static void writeHeader(String name, byte type, int mode, long size, long modified, String link,
+      OutputStream stream) throws IOException {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    byte[] target = link.getBytes(StandardCharsets.UTF_8);
+    StringBuilder pax = new StringBuilder();
+    if (bytes.length > 100) {
+      pax.append(TarBundle.toPaxRecord("path", name));
+    }
+    if (target.length > 100) {
+      pax.append(TarBundle.toPaxRecord("linkpath", link));
+    }
+    if (size > MAX_SIZE) {
+      pax.append(TarBundle.toPaxRecord("size", Long.toString(size)));
+    }
+    if (pax.length() > 0) {
+      byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+      TarBundle.writeHeader("PaxHeader/" + Math.abs(name.hashCode()), PAX, 0644, records.length, modified, "",
+          stream);
+      stream.write(records);
+      stream.write(PADDING, 0, TarBundle.getPadding(records.length));
+    }
+
+    byte[] header = new byte[BLOCK];
+    System.arraycopy(bytes, 0, header, 0, Math.min(bytes.length, 100));
+    TarBundle.putOctal(header, 100, 8, mode);
+    TarBundle.putOctal(header, 108, 8, 0);
+    TarBundle.putOctal(header, 116, 8, 0);
+    TarBundle.putOctal(header, 124, 12, Math.min(size, MAX_SIZE));
+    TarBundle.putOctal(header, 136, 12, modified / 1000);
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    header[156] = type;
+    System.arraycopy(target, 0, header, 157, Math.min(target.length, 100));
+    System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xFF;
+    }
+    TarBundle.putOctal(header, 148, 7, checksum);
+    stream.write(header);
+  }
+
+  /**
+   * Creates a pax record, whose length includes the length field itself.
+   *
+   * @param key
+   * @param value
+   */
+  private static String toPaxRecord(String key, String value) {
+    String record = String.format(" %s=%s\n", key, value);
+    int length = record.getBytes(StandardCharsets.UTF_8).length;
+    int total = length + Integer.toString(length).length();
+    if (Integer.toString(total).length() > Integer.toString(length).length()) {
+      total++;
+    }
+    return total + record;
+  }
+
+  /**
+   * Parses the pax records into the map.
+   *
+   * @param data
+   * @param values
+   */
+  private static void parsePax(byte[] data, Map<String, String> values) {
+    int offset = 0;
+    while (offset < data.length) {
+      int space = offset;
+      while (space < data.length && data[space] != ' ') {
+        space++;
+      }
+      if (space == offset || space == data.length) {
+        return;
+      }
+      int length = Integer.parseInt(new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+      String record = new String(data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+      int index = record.indexOf('=');
+      if (index > 0) {
+        values.put(record.substring(0, index), record.substring(index + 1));
+      }
+      offset += length;
+    }
+  }
+
+  /**
+   * Resolves the name of the entry in the directory.
+   *
+   * @param directory
+   * @param name
+   */
+  private static File resolve(File directory, String name) throws IOException {
+    if (name.startsWith("/") || Arrays.asList(name.split("/")).contains("..")) {
+      throw new IOException(String.format("Invalid entry '%s' in bundle", name));
+    }
+    return new File(directory, name);
+  }
+
+  /**
+   * Verifies, that the real path of the parent of the extracted entry is within the directory, so
+   * that no entry is extracted through a link.
+   *
+   * @param base
+   * @param file
+   */
+  private static void checkParent(Path base, Path file) throws IOException {
+    if (!file.getParent().toRealPath().startsWith(base)) {
+      throw new IOException(String.format("Invalid entry '%s' in bundle", file));
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the relative target of the link stays within the tree. The parent
+   * references of the target must all be leading, so that the target doesn't go up through another
+   * link it passes.
+   *
+   * @param tree
+   * @param link
+   * @param target
+   */
+  private static boolean isWithin(Path tree, Path link, String target) {
+    if (target.isEmpty() || target.startsWith("/") || Paths.get(target).isAbsolute()) {
+      return false;
+    }
+    boolean leading = true;
+    for (String segment : target.split("/")) {
+      if (!segment.equals("..")) {
+        leading = false;
+      } else if (!leading) {
+        return false;
+      }
+    }
+    return link.getParent().resolve(target).normalize().startsWith(tree);
+  }
+
+  /**
+   * Reads the data of an entry into memory.
+   *
+   * @param stream
+   * @param size
+   */
+  private static byte[] readData(InputStream stream, long size) throws IOException {
+    byte[] data = new byte[(int) size];
+    ByteStreams.readFully(stream, data);
+    TarBundle.skipPadding(stream, size);
+    return data;
+  }
+
+  /**
+   * Skips the padding after the data of an entry.
+   *
+   * @param stream
+   * @param size
+   */
+  private static void skipPadding(InputStream stream, long size) throws IOException {
+    ByteStreams.skipFully(stream, TarBundle.getPadding(size));
+  }
+
+  /**
+   * Get the number of bytes to fill the last block of the data.
+   *
+   * @param size
+   */
+  private static int getPadding(long size) {
+    return (int) ((BLOCK - (size % BLOCK)) % BLOCK);
+  }
+
+  /**
+   * Get the name of the entry from the ustar header, including the prefix.
+   *
+   * @param header
+   */
+  private static String getName(byte[] header) {
+    String name = TarBundle.getString(header, 0, 100);
+    String prefix = TarBundle.getString(header, 345, 155);
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  /**
+   * Get a NUL terminated string from the header.
+   *
+   * @param header
+   * @param offset
+   * @param length
+   */
+  private static String getString(byte[] header, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get an octal number from the header.
+   *
+   * @param header
+   * @param offset
+   * @param length
+   */
+  private static long getOctal(byte[] header, int offset, int length) {
+    long value = 0;
+    for (int index = offset; index < offset + length; index++) {
+      if (header[index] >= '0' && header[index] <= '7') {
+        value = (value << 3) + (header[index] - '0');
+      } else if (header[index] == 0 || (header[index] == ' ' && value > 0)) {
+        break;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Writes an octal number with leading zeros and a terminating NUL into the header.
+   *
+   * @param header
+   * @param offset
+   * @param length
+   * @param value
+   */
+  private static void putOctal(byte[] header, int offset, int length, long value) {
+    String octal = String.format("%0" + (length - 1) + "o", value);
+    System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    header[offset + length - 1] = 0;
+  }
+
+  /**
+   * Returns <code>true</code> if the block contains only zeros, which marks the end of the archive.
+   *
+   * @param block
+   */
+  private static boolean isEmpty(byte[] block) {
+    for (byte b : block) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link TransferQueue} executes transfers on a bounded pool of worker threads. Submitting
+ * blocks as long as all slots are in use, so that the producer can never run ahead of the
+ * workers. The first failure cancels all pending transfers and is reported to the producer.
+ */
+class TransferQueue implements Closeable {
+
+  private static final AtomicInteger POOL = new AtomicInteger();
+
+
+  private final int                        capacity;
+  private final Semaphore                  permits;
+  private final ExecutorService            executor;
+  private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+  /**
+   * Constructs an instance of {@link TransferQueue}.
+   *
+   * @param threads
+   */
+  TransferQueue(int threads) {
+    String name = "webdav-transfer-" + POOL.incrementAndGet() + "-";
+    AtomicInteger counter = new AtomicInteger();
+
+    this.capacity = 2 * threads;
+    this.permits = new Semaphore(capacity);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, name + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Submits a transfer, blocking until a slot is free. Throws the first failure of a previous
+   * transfer, if any.
+   *
+   * @param transfer
+   */
+  public final void submit(Transfer transfer) throws IOException {
+    verify();
+    acquire(1);
+    try {
+      executor.execute(() -> {
+        try {
+          if (failure.get() == null) {
+            transfer.execute();
+          }
+        } catch (Exception e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits until all submitted transfers are completed. Throws the first failure, if any.
+   */
+  public final void await() throws IOException {
+    acquire(capacity);
+    permits.release(capacity);
+    verify();
+  }
+
+  /**
+   * Cancels all pending transfers and stops the worker threads.
+   */
+  @Override
+  public final void close() {
+    failure.compareAndSet(null, new InterruptedIOException("Transfer cancelled"));
+    executor.shutdownNow();
+  }
+
+  /**
+   * Acquires the number of slots.
+   *
+   * @param slots
+   */
+  private void acquire(int slots) throws IOException {
+    try {
+      permits.acquire(slots);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for transfers");
+    }
+  }
+
+  /**
+   * Throws the first failure of a transfer.
+   */
+  private void verify() throws IOException {
+    Exception exception = failure.get();
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    } else if (exception != null) {
+      throw new IOException(exception.getMessage(), exception);
+    }
+  }
+
+  /**
+   * The {@link Transfer} defines a single remote operation.
+   */
+  @FunctionalInterface
+  interface Transfer {
+
+    void execute() throws IOException;
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link TransferSummary} counts the files and bytes that have been transferred or skipped,
+ * the counters are updated concurrently by the workers of a {@link TransferQueue}.
+ */
+public class TransferSummary {
+
+  private final AtomicLong uploadedFiles = new AtomicLong();
+  private final AtomicLong uploadedBytes = new AtomicLong();
+  private final AtomicLong skippedFiles  = new AtomicLong();
+  private final AtomicLong skippedBytes  = new AtomicLong();
+  private final AtomicLong fetchedFiles  = new AtomicLong();
+  private final AtomicLong fetchedBytes  = new AtomicLong();
+  private final AtomicLong cachedFiles   = new AtomicLong();
+  private final AtomicLong cachedBytes   = new AtomicLong();
+  private final AtomicLong keptFiles     = new AtomicLong();
+  private final AtomicLong keptBytes     = new AtomicLong();
+  private final long       started       = System.nanoTime();
+
+  /**
+   * Adds uploaded files and bytes.
+   *
+   * @param files
+   * @param bytes
+   */
+  public final void addUploaded(long files, long bytes) {
+    uploadedFiles.addAndGet(files);
+    uploadedBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Adds skipped files and bytes.
+   *
+   * @param files
+   * @param bytes
+   */
+  public final void addSkipped(long files, long bytes) {
+    skippedFiles.addAndGet(files);
+    skippedBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Adds downloaded files and bytes.
+   *
+   * @param files
+   * @param bytes
+   */
+  public final void addDownloaded(long files, long bytes) {
+    fetchedFiles.addAndGet(files);
+    fetchedBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Adds files and bytes restored from the local cache.
+   *
+   * @param files
+   * @param bytes
+   */
+  public final void addCached(long files, long bytes) {
+    cachedFiles.addAndGet(files);
+    cachedBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Adds files and bytes, that are unchanged since they have been fetched before.
+   *
+   * @param files
+   * @param bytes
+   */
+  public final void addKept(long files, long bytes) {
+    keptFiles.addAndGet(files);
+    keptBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Get the number of uploaded files.
+   */
+  public final long getUploadedFiles() {
+    return uploadedFiles.get();
+  }
+
+  /**
+   * Get the number of uploaded bytes.
+   */
+  public final long getUploadedBytes() {
+    return uploadedBytes.get();
+  }
+
+  /**
+   * Get the number of skipped bytes.
+   */
+  public final long getSkippedBytes() {
+    return skippedBytes.get();
+  }
+
+  /**
+   * Get the number of downloaded files.
+   */
+  public final long getFetchedFiles() {
+    return fetchedFiles.get();
+  }
+
+  /**
+   * Get the number of files, that are unchanged since they have been fetched before.
+   */
+  public final long getKeptFiles() {
+    return keptFiles.get();
+  }
+
+  /**
+   * Returns a human readable summary of the downloads, or the uploads if nothing has been
+   * downloaded, with the throughput since the summary has been created.
+   */
+  @Override
+  public final String toString() {
+    long nanos = System.nanoTime() - started;
+    if (fetchedFiles.get() > 0 || cachedFiles.get() > 0 || keptFiles.get() > 0) {
+      return String.format("%d files (%s) downloaded in %s, %d cached files (%s) restored, %d unchanged files (%s) kept",
+          fetchedFiles.get(), TransferSummary.toSize(fetchedBytes.get()),
+          TransferSummary.toDuration(fetchedBytes.get(), nanos), cachedFiles.get(),
+          TransferSummary.toSize(cachedBytes.get()), keptFiles.get(), TransferSummary.toSize(keptBytes.get()));
+    }
+    return String.format("%d files (%s) uploaded in %s, %d unchanged files (%s) skipped", uploadedFiles.get(),
+        TransferSummary.toSize(uploadedBytes.get()), TransferSummary.toDuration(uploadedBytes.get(), nanos),
+        skippedFiles.get(), TransferSummary.toSize(skippedBytes.get()));
+  }
+
+  /**
+   * Formats the duration of a transfer with its throughput.
+   *
+   * @param bytes
+   * @param nanos
+   */
+  public static String toDuration(long bytes, long nanos) {
+    double seconds = Math.max(nanos, 1) / 1e9;
+    return String.format("%.2f s (%s/s)", seconds, TransferSummary.toSize((long) (bytes / seconds)));
+  }
+
+  /**
+   * Formats a number of bytes with a binary unit.
+   *
+   * @param bytes
+   */
+  public static String toSize(long bytes) {
+    if (bytes < 1024) {
+      return bytes + " B";
+    }
+    int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+    return String.format("%.1f %siB", bytes / (double) (1L << (10 * unit)), "KMGTPE".charAt(unit - 1));
+  }
+}
@@ -16,52 +16,102 @@
 
 package cd.go.artifact.webdav;
 
+import com.github.sardine.DavResource;
 import com.github.sardine.Sardine;
-import com.github.sardine.SardineFactory;
+import com.github.sardine.impl.SardineException;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteStreams;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.EntityTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import cd.go.artifact.Console;
+import cd.go.artifact.util.Excludes;
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
 
 /**
- * The {@link WebDAV} is an abstraction to the {@link Sardine} backend.
+ * The {@link WebDAV} is an abstraction to the {@link Sardine} backend. Files are pushed and
+ * pulled asynchronously on a pool of worker threads, {@link #await()} waits until all of them are
+ * transferred.
  */
-public class WebDAV {
+public class WebDAV implements Closeable {
 
-  private final String  url;
-  private final Console console;
-  private final Sardine sardine;
+  private final String       url;
+  private final Console      console;
+  private final WebDAVClient sardine;
+  private final int          threads;
+  private final boolean      optimistic;
+  private final long         chunkSize;
+  private final long         chunkThreshold;
+  private final boolean      incremental;
+  private final Compression  compression;
+  private final boolean      fsync;
+  private final long         rangeThreshold;
+  private final Checksum     checksum;
 
-  /**
-   * Constructs an instance of {@link WebDAV} without authentication.
-   *
-   * @param url
-   * @param console
-   */
-  public WebDAV(String url, Console console) {
-    this(url, console, null, null);
-  }
+  private final ContentStore                          contents;
+  private final CollectionCache                       collections;
+  private final ArtifactCache                         cache;
+  private final Map<String, String>                   digests  = new ConcurrentHashMap<>();
+  private final Map<String, Digest>                   known    = new ConcurrentHashMap<>();
+  private final TransferSummary                       summary  = new TransferSummary();
+  private TransferQueue                               queue;
+  private FetchIndex                                  index;
+  private Excludes                                    excludes = Excludes.NONE;
 
   /**
-   * Constructs an instance of {@link WebDAV} with authentication.
+   * Constructs an instance of {@link WebDAV}, leasing the pooled {@link Sardine} client of the
+   * store from the {@link WebDAVClients}.
    *
-   * @param url
+   * @param config
    * @param console
-   * @param username
-   * @param password
+   * @param clients
    */
-  public WebDAV(String url, Console console, String username, String password) {
-    this.url = url;
+  public WebDAV(WebDavStoreConfig config, Console console, WebDAVClients clients) {
+    this.url = config.getUrl();
     this.console = console;
-    this.sardine = SardineFactory.begin(username, password);
+    this.sardine = clients.lease(config);
+    this.threads = config.getThreads();
+    this.optimistic = config.isOptimistic();
+    this.chunkSize = config.getChunkSize();
+    this.chunkThreshold = config.getChunkThreshold();
+    this.incremental = config.isIncremental();
+    this.compression = config.getCompression();
+    this.fsync = config.isFsync();
+    this.rangeThreshold = config.getRangeThreshold();
+    this.checksum = config.getChecksum();
+    this.contents = config.isContentAddressed() ? new ContentStore(this, console) : null;
+    this.collections = new CollectionCache(clients.getCollections(config));
+    this.cache = clients.getCache(config);
   }
 
   /**
@@ -74,10 +124,80 @@ public class WebDAV {
   /**
    * Get the reference to the {@link Sardine} implementation.
    */
-  protected final Sardine getSardine() {
+  protected final WebDAVClient getSardine() {
     return sardine;
   }
 
+  /**
+   * Get the {@link TransferSummary} of the files pushed so far.
+   */
+  public final TransferSummary getSummary() {
+    return summary;
+  }
+
+  /**
+   * Get the digests of the files and bundles pushed so far by their path. The path of a compressed
+   * file is the path without the suffix.
+   */
+  public final Map<String, String> getDigests() {
+    return digests;
+  }
+
+  /**
+   * Set the digests of the files and bundles by their path, that are known from the publish. Their
+   * sidecars aren't requested, when they are fetched.
+   *
+   * @param checksum
+   * @param digests
+   */
+  public final void setDigests(Checksum checksum, Map<String, String> digests) {
+    if (checksum != Checksum.NONE) {
+      digests.forEach((path, value) -> known.put(path, new Digest(checksum, value)));
+    }
+  }
+
+  /**
+   * Get the {@link ContentStore}, or <code>null</code> if files are stored by their path.
+   */
+  public final ContentStore getContentStore() {
+    return contents;
+  }
+
+  /**
+   * Get the {@link FetchIndex} of the files fetched before, or <code>null</code>.
+   */
+  final FetchIndex getFetchIndex() {
+    return index;
+  }
+
+  /**
+   * Set the {@link FetchIndex}, so that files fetched before are only requested conditionally.
+   *
+   * @param index
+   */
+  public final void setFetchIndex(FetchIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Set the {@link Excludes} of the files and directories, that aren't pushed.
+   *
+   * @param excludes
+   */
+  public final void setExcludes(Excludes excludes) {
+    this.excludes = excludes;
+  }
+
+  /**
+   * Get the {@link TransferQueue}, the worker threads are started on first use.
+   */
+  final TransferQueue getQueue() {
+    if (queue == null) {
+      queue = new TransferQueue(threads);
+    }
+    return queue;
+  }
+
   /**
    * Get the full URL to the resource.
    * 
@@ -97,83 +217,963 @@ public class WebDAV {
   }
 
   /**
-   * Make all directories for the provided path.
+   * Make all directories for the provided path. In optimistic mode the directories are created
+   * lazily, once a file can't be stored because of a missing directory. Content addressed files
+   * don't need the directories at all.
    * 
    * @param path
    */
   public final void mkdirs(String path) throws IOException {
+    if (optimistic || contents != null) {
+      return;
+    }
+
     List<String> paths = new ArrayList<>();
     for (String name : path.split("/")) {
       if (!name.contains(".")) {
         paths.add(name);
-        String resource = getResource(String.join("/", paths));
-        if (!getSardine().exists(resource)) {
-          getSardine().createDirectory(resource);
-        }
+        createDirectory(String.join("/", paths));
       }
     }
   }
 
   /**
-   * Fetches (PULL) a resource from remote storage.
+   * Fetches (PULL) a resource from remote storage. A file that has been compressed is decompressed
+   * while it is read, a file that has been uploaded in parts is streamed part by part.
    *
    * @param path
    */
   public final InputStream pull(String path) throws IOException {
-    return getSardine().get(getResource(path));
+    try {
+      return getSardine().get(getResource(path));
+    } catch (SardineException e) {
+      if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+        throw e;
+      }
+      InputStream stream = pullVariant(path);
+      if (stream == null) {
+        throw e;
+      }
+      return stream;
+    }
+  }
+
+  /**
+   * Fetches (PULL) a resource from remote storage into the file. The file is queued for download,
+   * the method blocks only while all workers are busy. Files above the range threshold are fetched
+   * in parallel ranges, if the server accepts them. With a local cache, the ETag of the resource is
+   * requested first, a cached file is restored without a download. With a {@link Checksum}, the
+   * file is verified with the digest known from the publish or with its sidecar, if there is one.
+   *
+   * @param path
+   * @param file
+   */
+  public final void pull(String path, File file) throws IOException {
+    String sidecar = (checksum == Checksum.NONE) ? null : path + checksum.getSuffix();
+    if (cache == null) {
+      pull(path, file, -1, null, sidecar);
+    } else if (ContentStore.isBlob(path)) {
+      pull(path, file, -1, "", sidecar); // A blob never changes
+    } else {
+      DavResource resource = getFile(path);
+      pull(path, file, (resource == null || resource.getContentLength() == null) ? -1 : resource.getContentLength(),
+          (resource == null) ? null : resource.getEtag(), sidecar);
+    }
+  }
+
+  /**
+   * Fetches (PULL) a resource of a known length and ETag from remote storage into the file. The
+   * length is -1 and the ETag <code>null</code>, if they are unknown.
+   *
+   * @param path
+   * @param file
+   * @param length
+   * @param etag
+   * @param sidecar
+   */
+  private void pull(String path, File file, long length, String etag, String sidecar) throws IOException {
+    String key = getCacheKey(path, etag);
+    if (etag != null && index != null && etag.equals(index.getETag(file))) {
+      File target = index.getTarget(file);
+      summary.addKept(1, target.length());
+      console.info("File '%s' is unchanged", target.getAbsolutePath());
+      return;
+    } else if (key != null && restore(key, file, etag)) {
+      return;
+    } else if (rangeThreshold > 0 && (length < 0 || length > rangeThreshold) && !path.endsWith(Compression.SUFFIX)
+        && new RangedDownload(this, console).pull(path, file, key, sidecar, rangeThreshold, threads, fsync)) {
+      return;
+    }
+    getQueue().submit(() -> download(path, file, etag, sidecar));
+  }
+
+  /**
+   * Get the key of the resource in the local cache, or <code>null</code> if there is no cache or
+   * the ETag is unknown.
+   *
+   * @param path
+   * @param etag
+   */
+  private String getCacheKey(String path, String etag) {
+    return (cache == null || etag == null) ? null : String.format("%s %s", getResource(path), etag);
+  }
+
+  /**
+   * Get the expected {@link Digest} of the resource, or <code>null</code> if the file isn't
+   * verified. A blob of the {@link ContentStore} is named by its SHA-256, the digest of other files
+   * is known from the publish or read from the sidecar.
+   *
+   * @param path
+   * @param sidecar
+   */
+  final Digest getDigest(String path, String sidecar) throws IOException {
+    if (checksum == Checksum.NONE) {
+      return null;
+    } else if (ContentStore.isBlob(path)) {
+      return new Digest(Checksum.SHA256, ContentStore.getHash(path));
+    } else if (known.containsKey(path)) {
+      return known.get(path);
+    } else if (sidecar == null) {
+      return null;
+    }
+
+    try (InputStream stream = getSardine().get(getResource(sidecar))) {
+      return Digest.parse(checksum, new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8));
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Restores the file from the local cache, returns <code>false</code> if it isn't cached.
+   *
+   * @param key
+   * @param file
+   * @param etag
+   */
+  private boolean restore(String key, File file, String etag) throws IOException {
+    File target = cache.restore(key, file);
+    if (target == null) {
+      return false;
+    }
+    record(file, target, etag, null);
+    summary.addCached(1, target.length());
+    console.info("File '%s' restored from cache", target.getAbsolutePath());
+    return true;
+  }
+
+  /**
+   * Stores a copy of the downloaded file in the local cache, if the key is known.
+   *
+   * @param key
+   * @param file
+   */
+  final void cache(String key, File file) throws IOException {
+    if (key != null) {
+      cache.store(key, file);
+    }
+  }
+
+  /**
+   * Records the validators of the fetched file in the {@link FetchIndex}, if there is one.
+   *
+   * @param file
+   * @param target
+   * @param etag
+   * @param lastModified
+   */
+  final void record(File file, File target, String etag, String lastModified) {
+    if (index != null) {
+      index.record(file, target, etag, lastModified);
+    }
+  }
+
+  /**
+   * Get the remote file on the path, or <code>null</code> if there is no such file.
+   *
+   * @param path
+   */
+  private DavResource getFile(String path) throws IOException {
+    try {
+      List<DavResource> resources = getSardine().list(getResource(path), 0);
+      return (resources.isEmpty() || resources.get(0).isDirectory()) ? null : resources.get(0);
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Fetches (PULL) all remote files of the directory recursively. Each directory is listed with a
+   * PROPFIND of depth 1, while the files found so far are downloaded by the workers. Of the plain,
+   * compressed and chunked variants of a file only one is fetched.
+   *
+   * @param path
+   * @param directory
+   */
+  public final void pullAll(String path, File directory) throws IOException {
+    Deque<Map.Entry<String, File>> directories = new ArrayDeque<>();
+    directories.add(new AbstractMap.SimpleEntry<>(path, directory));
+    while (!directories.isEmpty()) {
+      Map.Entry<String, File> entry = directories.poll();
+      entry.getValue().mkdirs();
+
+      String resource = getResource(entry.getKey());
+      int depth = WebDAV.getDepth(new URL(resource).getPath());
+      List<DavResource> children = getSardine().list(resource, 1).stream()
+          .filter(c -> WebDAV.getDepth(c.getPath()) == depth + 1).collect(Collectors.toList());
+      Set<String> names = children.stream().map(DavResource::getName).collect(Collectors.toSet());
+      Set<String> superseded = getSuperseded(entry.getKey(), children);
+      for (DavResource child : children) {
+        String name = child.getName();
+        String childPath = String.format("%s/%s", entry.getKey(), name);
+        if (name.endsWith(ChunkedTransfer.UPLOAD) || WebDAV.isSidecar(name, names) || superseded.contains(name)) {
+          continue;
+        } else if (!child.isDirectory()) {
+          Long length = child.getContentLength();
+          pull(childPath, new File(entry.getValue(), name), (length == null) ? -1 : length, child.getEtag(),
+              getSidecar(entry.getKey(), name, names));
+        } else if (name.endsWith(ChunkedTransfer.CHUNKS)) {
+          String file = name.substring(0, name.length() - ChunkedTransfer.CHUNKS.length());
+          pull(childPath.substring(0, childPath.length() - ChunkedTransfer.CHUNKS.length()),
+              new File(entry.getValue(), file), -1, null, getSidecar(entry.getKey(), file, names));
+        } else {
+          directories.add(new AbstractMap.SimpleEntry<>(childPath, new File(entry.getValue(), name)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the names of the listed files, that are superseded by another variant of the same file. A
+   * file is pushed plain, compressed or in parts; the variants of earlier pushes with another
+   * compression or chunk threshold are removed by the push, but the most recently modified variant
+   * is kept anyway. A file with the suffix of the {@link Compression} is only a variant, if it has
+   * been compressed by the push, which is probed with the leading bytes of the file.
+   *
+   * @param parent
+   * @param children
+   */
+  private Set<String> getSuperseded(String parent, List<DavResource> children) throws IOException {
+    Map<String, List<DavResource>> variants = new HashMap<>();
+    for (DavResource child : children) {
+      variants.computeIfAbsent(WebDAV.getPlainName(child), n -> new ArrayList<>()).add(child);
+    }
+
+    Set<String> superseded = new HashSet<>();
+    for (List<DavResource> files : variants.values()) {
+      if (files.size() < 2) {
+        continue;
+      }
+      List<DavResource> candidates = new ArrayList<>();
+      for (DavResource file : files) {
+        if (file.isDirectory() || !file.getName().endsWith(Compression.SUFFIX)
+            || isCompressed(String.format("%s/%s", parent, file.getName()))) {
+          candidates.add(file);
+        }
+      }
+      candidates.sort(Comparator.comparing(f -> (f.getModified() == null) ? 0 : f.getModified().getTime()));
+      candidates.subList(0, Math.max(0, candidates.size() - 1)).forEach(f -> superseded.add(f.getName()));
+    }
+    return superseded;
+  }
+
+  /**
+   * Get the name of the file, that a compressed or chunked variant is fetched into.
+   *
+   * @param resource
+   */
+  private static String getPlainName(DavResource resource) {
+    String name = resource.getName();
+    if (resource.isDirectory()) {
+      return name.endsWith(ChunkedTransfer.CHUNKS) ? name.substring(0, name.length() - ChunkedTransfer.CHUNKS.length())
+          : name + "/";
+    }
+    return name.endsWith(Compression.SUFFIX) ? name.substring(0, name.length() - Compression.SUFFIX.length()) : name;
+  }
+
+  /**
+   * Returns <code>true</code> if the remote file has been compressed by the push. Only the header
+   * of the file is requested.
+   *
+   * @param path
+   */
+  private boolean isCompressed(String path) throws IOException {
+    Map<String, String> headers = Collections.singletonMap(HttpHeaders.RANGE, "bytes=0-63");
+    try (InputStream stream = new BufferedInputStream(getSardine().get(getResource(path), headers))) {
+      return Compression.isCompressed(stream);
+    }
+  }
+
+  /**
+   * Fetches (PULL) a bundle of {@link #pushBundle} and extracts it into the directory. The bundle
+   * is queued, it is extracted by a worker while it is read.
+   *
+   * @param path
+   * @param directory
+   */
+  public final void pullBundle(String path, File directory) throws IOException {
+    getQueue().submit(() -> {
+      console.info("Extract bundle '%s' into '%s'", path, directory);
+      Digest digest = getDigest(path, (checksum == Checksum.NONE) ? null : path + checksum.getSuffix());
+      Hasher hasher = (digest == null) ? null : digest.newHasher();
+      try (InputStream stream = (hasher == null) ? pull(path) : Digest.tee(pull(path), hasher)) {
+        boolean compressed = path.endsWith(Compression.SUFFIX);
+        TarBundle.extract(compressed ? Compression.decompress(stream) : stream, directory, fsync, summary);
+        if (hasher != null) {
+          ByteStreams.exhaust(stream);
+          digest.verify(hasher, new File(path));
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the path of the sidecar of the listed file, or <code>null</code> if there is none. The
+   * sidecar of a compressed file belongs to the name without the suffix, unless a file published
+   * with the suffix has a sidecar of its own.
+   *
+   * @param parent
+   * @param name
+   * @param names
+   */
+  private String getSidecar(String parent, String name, Set<String> names) {
+    if (checksum == Checksum.NONE) {
+      return null;
+    }
+    String suffix = checksum.getSuffix();
+    String plain = name.endsWith(Compression.SUFFIX) ? name.substring(0, name.length() - Compression.SUFFIX.length())
+        : name;
+    if (names.contains(name + suffix)) {
+      return String.format("%s/%s", parent, name + suffix);
+    }
+    return names.contains(plain + suffix) ? String.format("%s/%s", parent, plain + suffix) : null;
+  }
+
+  /**
+   * Returns <code>true</code> if the name is the sidecar of a listed file.
+   *
+   * @param name
+   * @param names
+   */
+  private static boolean isSidecar(String name, Set<String> names) {
+    if (!Checksum.isSidecar(name)) {
+      return false;
+    }
+    String file = name.substring(0, name.lastIndexOf('.'));
+    return names.contains(file) || names.contains(file + Compression.SUFFIX)
+        || names.contains(file + ChunkedTransfer.CHUNKS);
+  }
+
+  /**
+   * Returns <code>true</code> if the resource is a remote directory.
+   *
+   * @param path
+   */
+  public final boolean isDirectory(String path) throws IOException {
+    try {
+      List<DavResource> resources = getSardine().list(getResource(path), 0);
+      return !resources.isEmpty() && resources.get(0).isDirectory();
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Fetches the compressed or chunked variant of the resource, or returns <code>null</code> if
+   * there is none.
+   *
+   * @param path
+   */
+  private InputStream pullVariant(String path) throws IOException {
+    InputStream stream = pullCompressed(path);
+    return (stream == null) ? ChunkedTransfer.open(this, path) : stream;
+  }
+
+  /**
+   * Fetches the compressed variant of the resource, or returns <code>null</code> if there is none.
+   *
+   * @param path
+   */
+  private InputStream pullCompressed(String path) throws IOException {
+    InputStream stream;
+    try {
+      stream = new BufferedInputStream(getSardine().get(getResource(path + Compression.SUFFIX)));
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+
+    if (Compression.isCompressed(stream)) {
+      return Compression.decompress(stream);
+    }
+    stream.close();
+    return null;
   }
 
   /**
-   * Publish (PUSH) a file to the remote storage.
+   * Downloads the resource into the file. A resource with the suffix of the {@link Compression},
+   * that has been compressed while it was pushed, is decompressed into the file without suffix. A
+   * plain file is fetched with a {@link ResumableDownload}, that is skipped if the file is
+   * unchanged. The file is cached, if the ETag is known.
+   *
+   * @param path
+   * @param file
+   * @param etag
+   * @param sidecar
+   */
+  private void download(String path, File file, String etag, String sidecar) throws IOException {
+    long started = System.nanoTime();
+    long length;
+    File target = file;
+    Digest digest = getDigest(path, sidecar);
+    if (path.endsWith(Compression.SUFFIX)) {
+      try (InputStream stream = new BufferedInputStream(getSardine().get(getResource(path)))) {
+        if (Compression.isCompressed(stream)) {
+          String name = file.getName();
+          target = new File(file.getParentFile(), name.substring(0, name.length() - Compression.SUFFIX.length()));
+          length = save(Compression.decompress(stream), target, digest);
+        } else {
+          length = save(stream, target, digest);
+        }
+      }
+      record(file, target, etag, null);
+    } else {
+      length = new ResumableDownload(this, console).pull(path, file, fsync, digest);
+      if (length == ResumableDownload.NOT_MODIFIED) {
+        summary.addKept(1, file.length());
+        console.info("File '%s' is unchanged", file.getAbsolutePath());
+        return;
+      } else if (length < 0) {
+        try (InputStream stream = pullVariant(path)) {
+          if (stream == null) {
+            throw new SardineException("Unexpected response", HttpStatus.SC_NOT_FOUND, "Not Found");
+          }
+          length = save(stream, target, digest);
+        }
+        record(file, target, null, null);
+      }
+    }
+    summary.addDownloaded(1, length);
+    cache(getCacheKey(path, etag), target);
+
+    console.info("File '%s' stored, %s in %s.", target.getAbsolutePath(), TransferSummary.toSize(length),
+        TransferSummary.toDuration(length, System.nanoTime() - started));
+  }
+
+  /**
+   * Stores the stream into the partial file with a {@link BlockCopy}, and moves it into place once
+   * it is complete and matches the {@link Digest}.
+   *
+   * @param stream
+   * @param file
+   * @param digest
+   */
+  private long save(InputStream stream, File file, Digest digest) throws IOException {
+    file.getParentFile().mkdirs();
+    console.info("Storing file to '%s'", file.getAbsolutePath());
+    File part = ResumableDownload.getPart(file);
+    Hasher hasher = (digest == null) ? null : digest.newHasher();
+    long length = BlockCopy.copy((hasher == null) ? stream : Digest.tee(stream, hasher), part, fsync);
+    if (hasher != null) {
+      try {
+        digest.verify(hasher, file);
+      } catch (IOException e) {
+        Files.deleteIfExists(part.toPath());
+        throw e;
+      }
+    }
+    ResumableDownload.complete(file);
+    return length;
+  }
+
+  /**
+   * Publish (PUSH) a file to the remote storage. The file is queued for upload, the method blocks
+   * only while all workers are busy. Files above the chunk threshold are uploaded in parts. In
+   * incremental mode a file is skipped, if the remote file is unchanged; the worker compares the
+   * file before the upload.
    *
    * @param path
    * @param file
    */
   public final void push(String path, File file) throws IOException {
-    try (InputStream stream = new FileInputStream(file)) {
-      console.info("Push file '%s' to '%s'", file, path);
-      getSardine().put(getResource(path), stream);
+    if (contents != null) {
+      contents.push(path, file);
+    } else if (chunkThreshold > 0 && file.length() > chunkThreshold) {
+      if (!skipUnchanged(path, file)) {
+        new ChunkedTransfer(this, console).push(path, file, chunkSize);
+      }
+    } else {
+      getQueue().submit(() -> {
+        if (!skipUnchanged(path, file)) {
+          put(path, file);
+        }
+      });
+    }
+  }
+
+  /**
+   * Skips the file in incremental mode, if the remote file is unchanged. Returns
+   * <code>true</code> if the file has been skipped.
+   *
+   * @param path
+   * @param file
+   */
+  private boolean skipUnchanged(String path, File file) throws IOException {
+    if (!incremental || !isUnchanged(path, file)) {
+      return false;
     }
+    console.info("Skip unchanged file '%s'", path);
+    summary.addSkipped(1, file.length());
+    return true;
   }
 
   /**
-   * Push all local files recursively to the remote storage.
+   * Push all local files recursively to the remote storage. The remote directories are created
+   * level by level, so that each directory exists before any file or directory is stored in it.
+   * In optimistic mode only empty directories are created, once they are listed, all others are
+   * created when the first file is stored in it. The attributes of each entry are read once, an
+   * excluded directory isn't read at all. Returns the size of the files found.
    *
    * @param path
    * @param directory
    */
-  public final void pushAll(String path, File directory) throws IOException {
-    for (File file : WebDAV.listSorted(directory)) {
-      String newPath = String.format("%s/%s", path, file.getName());
-      if (file.isDirectory()) {
-        if (!exists(newPath)) {
-          console.info("Create remote directory '%s'", newPath);
-          getSardine().createDirectory(getResource(newPath));
+  public final long pushAll(String path, File directory) throws IOException {
+    if (!optimistic && contents == null && !path.isEmpty() && !collections.contains(path)) {
+      createCollection(path, true); // The directory of a remapped source isn't created by mkdirs
+    }
+
+    Map<String, File> level = Collections.singletonMap(path, directory);
+    long size = 0;
+    boolean nested = false;
+    while (!level.isEmpty()) {
+      Map<String, File> directories = new LinkedHashMap<>();
+      for (Map.Entry<String, File> entry : level.entrySet()) {
+        List<String> children = new ArrayList<>();
+        Map<File, BasicFileAttributes> files = WebDAV.listSorted(entry.getValue());
+        for (Map.Entry<File, BasicFileAttributes> file : files.entrySet()) {
+          String newPath = String.format("%s/%s", entry.getKey(), file.getKey().getName());
+          if (excludes.isExcluded(file.getKey().toPath(), file.getValue().isDirectory())) {
+            continue;
+          } else if (file.getValue().isDirectory()) {
+            directories.put(newPath, file.getKey());
+            children.add(newPath);
+          } else {
+            push(newPath, file.getKey());
+            size += file.getValue().size();
+          }
+        }
+        if (contents != null) {
+          continue; // The blobs don't need the directories of the logical tree
+        } else if (optimistic) {
+          if (nested && files.isEmpty()) {
+            getQueue().submit(() -> createCollection(entry.getKey(), true));
+          }
+        } else if (!children.isEmpty()) {
+          getQueue().submit(() -> createDirectories(entry.getKey(), children));
         }
-        pushAll(newPath, file);
+      }
+      getQueue().await();
+      level = directories;
+      nested = true;
+    }
+    return size;
+  }
+
+  /**
+   * Publish (PUSH) the directory as a single tar archive, that is compressed like single files. The
+   * entries of the archive start with the last name of the path. Returns the path of the archive.
+   *
+   * @param path
+   * @param directory
+   */
+  public final String pushBundle(String path, File directory) throws IOException {
+    String bundle = path + TarBundle.getSuffix(compression);
+    String root = path.isEmpty() ? directory.getName() : path.substring(path.lastIndexOf('/') + 1);
+    getQueue().submit(() -> {
+      console.info("Push directory '%s' to '%s'", directory, bundle);
+      Digester digester = (checksum == Checksum.NONE) ? null : new Digester(checksum);
+      TarBundle.Archive archive = new TarBundle.Archive(directory, root, compression, excludes, digester);
+      store(bundle, new EntityTemplate(archive));
+      summary.addUploaded(archive.getWritten().getUploadedFiles(), archive.getWritten().getUploadedBytes());
+      if (digester != null) {
+        storeDigest(bundle, digester.getValue());
+      }
+    });
+    return bundle;
+  }
+
+  /**
+   * Waits until all pushed or pulled files are transferred, and writes the index of the local
+   * cache.
+   */
+  public final void await() throws IOException {
+    if (queue != null) {
+      queue.await();
+    }
+    if (cache != null) {
+      cache.flush();
+    }
+  }
+
+  /**
+   * Cancels the pending uploads and releases the worker threads.
+   */
+  @Override
+  public final void close() {
+    if (queue != null) {
+      queue.close();
+    }
+  }
+
+  /**
+   * Uploads the file to the remote storage. A missing parent directory is created on a 409
+   * (Conflict) and the upload is repeated. Only in optimistic mode the directories are expected to
+   * be missing, but the directory of a file, that is remapped by a group of the source, isn't
+   * created beforehand in either mode.
+   *
+   * @param path
+   * @param file
+   */
+  private void put(String path, File file) throws IOException {
+    try {
+      upload(path, file);
+    } catch (SardineException e) {
+      int index = path.lastIndexOf('/');
+      if (e.getStatusCode() != HttpStatus.SC_CONFLICT || index < 0) {
+        throw e;
+      }
+      createCollection(path.substring(0, index), true);
+      upload(path, file);
+    }
+  }
+
+  /**
+   * Stores the entity on the remote storage. If the parent directory is missing, it is created on a
+   * 409 (Conflict) and the upload is repeated.
+   *
+   * @param path
+   * @param entity
+   */
+  final void store(String path, HttpEntity entity) throws IOException {
+    try {
+      getSardine().put(getResource(path), entity, null, true);
+    } catch (SardineException e) {
+      int index = path.lastIndexOf('/');
+      if (e.getStatusCode() != HttpStatus.SC_CONFLICT || index < 0) {
+        throw e;
+      }
+      createCollection(path.substring(0, index), true);
+      getSardine().put(getResource(path), entity, null, true);
+    }
+  }
+
+  /**
+   * Sends the file to the remote storage. With a {@link Checksum}, the file is hashed while it is
+   * sent and the digest is stored in a sidecar. The other variants of the file are removed. A file
+   * is sent uncompressed, if a file with the suffix of the {@link Compression} is published next to
+   * it, so that they don't overwrite each other.
+   *
+   * @param path
+   * @param file
+   */
+  private void upload(String path, File file) throws IOException {
+    Digester digester = (checksum == Checksum.NONE) ? null : new Digester(checksum);
+    boolean shadowed = new File(file.getPath() + Compression.SUFFIX).exists();
+    if (!shadowed && compression.isCompressible(file)) {
+      console.info("Push file '%s' to '%s'", file, path + Compression.SUFFIX);
+      getSardine().put(getResource(path + Compression.SUFFIX), compression.toEntity(file, digester), null,
+          optimistic);
+      removeVariants(path, path + Compression.SUFFIX);
+    } else {
+      console.info("Push file '%s' to '%s'", file, path);
+      getSardine().put(getResource(path), new FileChannelEntity(file, digester), null, optimistic);
+      if (shadowed) {
+        removeVariants(path, path, path + Compression.SUFFIX);
       } else {
-        push(newPath, file);
+        removeVariants(path, path);
       }
     }
+    summary.addUploaded(1, file.length());
+    if (digester != null) {
+      storeDigest(path, digester.getValue());
+    }
   }
 
-  private static final List<File> listSorted(File directory) {
-    return Arrays.asList(directory.listFiles()).stream().sorted(DIRECTORY_FIRST).collect(Collectors.toList());
+  /**
+   * Deletes the plain, compressed or chunked variants of the file other than the pushed ones, that
+   * are left from a push with another compression or chunk threshold. A chunked file verifies its
+   * parts, so that the sidecar of a former upload is deleted as well. Without compression and
+   * chunking a push creates no variants, so that nothing is deleted. The remote directory is listed
+   * once per publish, a directory created by this push has no variants.
+   *
+   * @param path
+   * @param variants
+   */
+  final void removeVariants(String path, String... variants) throws IOException {
+    if (compression == Compression.NONE && chunkThreshold <= 0) {
+      return;
+    }
+
+    int index = path.lastIndexOf('/');
+    Map<String, DavResource> files = getRemoteFiles((index < 0) ? "" : path.substring(0, index));
+    List<String> pushed = Arrays.asList(variants);
+    for (String other : Arrays.asList(path, path + Compression.SUFFIX)) {
+      if (!pushed.contains(other) && files.containsKey(other.substring(index + 1))) {
+        delete(other);
+      }
+    }
+    String chunks = path + ChunkedTransfer.CHUNKS;
+    if (!pushed.contains(chunks) && files.containsKey(chunks.substring(index + 1))) {
+      delete(chunks + "/");
+    }
+    String sidecar = path + checksum.getSuffix();
+    if (pushed.contains(chunks) && checksum != Checksum.NONE && files.containsKey(sidecar.substring(index + 1))) {
+      delete(sidecar);
+    }
+  }
+
+  /**
+   * Deletes the remote resource, a missing resource is ignored.
+   *
+   * @param path
+   */
+  private void delete(String path) throws IOException {
+    console.info("Delete remote variant '%s'", path);
+    try {
+      getSardine().delete(getResource(path));
+    } catch (SardineException e) {
+      if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+        throw e;
+      }
+    }
   }
 
-  private static final Comparator<File> DIRECTORY_FIRST = new Comparator<File>() {
+  /**
+   * Stores the digest of the pushed file in its sidecar, like the output of <code>sha256sum</code>.
+   * The sidecar of a compressed file belongs to the path without the suffix.
+   *
+   * @param path
+   * @param value
+   */
+  final void storeDigest(String path, String value) throws IOException {
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    byte[] content = Digester.toSidecar(value, name).getBytes(StandardCharsets.UTF_8);
+    getSardine().put(getResource(path + checksum.getSuffix()), content);
+    digests.put(path, value);
+  }
 
-    @Override
-    public int compare(File o1, File o2) {
-      if (o1.isDirectory() && !o2.isDirectory())
-        return -1;
-      if (!o1.isDirectory() && o2.isDirectory())
-        return 1;
-      if (o1.isDirectory() && o2.isDirectory())
-        return 0;
+  /**
+   * Get the {@link Checksum} of pushed files.
+   */
+  final Checksum getChecksum() {
+    return checksum;
+  }
 
-      // due bug in mod_dav on filename paths
-      return Integer.valueOf(o1.getName().length()).compareTo(Integer.valueOf(o2.getName().length()));
+  /**
+   * Returns <code>true</code> if the remote file is unchanged. The remote files are listed once per
+   * directory with their length and modification time, so that most files are decided without a
+   * further request. A plain file of the same length, that hasn't been modified locally since it
+   * was pushed, is unchanged. The length of a compressed file differs, and a file modified after
+   * the push may still have the same content, so that both are compared with the digest of their
+   * sidecar. A chunked file is compared with the length and modification time in its manifest.
+   *
+   * The modification times of the agent and the server are compared, a server clock behind the
+   * agent only causes files to be compared by their digest.
+   *
+   * @param path
+   * @param file
+   */
+  private boolean isUnchanged(String path, File file) throws IOException {
+    int index = path.lastIndexOf('/');
+    String name = path.substring(index + 1);
+    Map<String, DavResource> files = getRemoteFiles((index < 0) ? "" : path.substring(0, index));
+    if (files.containsKey(name + ChunkedTransfer.CHUNKS)) {
+      return ChunkedTransfer.isUnchanged(this, path, file);
     }
-  };
+
+    DavResource remote = files.get(name);
+    if (remote != null) {
+      if (remote.getContentLength() == null || remote.getContentLength() != file.length()) {
+        return false;
+      } else if (remote.getModified() != null && file.lastModified() < remote.getModified().getTime()) {
+        return true;
+      }
+    } else if (!files.containsKey(name + Compression.SUFFIX)) {
+      return false;
+    }
+
+    if (!files.containsKey(name + checksum.getSuffix())) {
+      return false;
+    }
+    Digest digest = getDigest(path, path + checksum.getSuffix());
+    return digest != null && digest.matches(file);
+  }
+
+  /**
+   * Get the remote files of the directory by name, the directory is listed once per publish. A
+   * missing directory has no files.
+   *
+   * @param path
+   */
+  private Map<String, DavResource> getRemoteFiles(String path) throws IOException {
+    return collections.getFiles(path, p -> {
+      try {
+        return list(p);
+      } catch (SardineException e) {
+        if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+          throw e;
+        }
+        return Collections.emptyMap();
+      }
+    });
+  }
+
+  /**
+   * Creates the remote directory, unless it is known to exist. The existence is only probed, if the
+   * parent directory hasn't been listed before.
+   *
+   * @param path
+   */
+  private void createDirectory(String path) throws IOException {
+    if (collections.contains(path)) {
+      return;
+    }
+
+    int index = path.lastIndexOf('/');
+    if ((index < 0 || !collections.isListed(path.substring(0, index))) && exists(path)) {
+      collections.add(path, false);
+      return;
+    }
+
+    createCollection(path, false);
+  }
+
+  /**
+   * Creates the remote directory with a MKCOL. A 405 (Method Not Allowed) means the directory
+   * already exists. If <code>withParents</code> is set, a 409 (Conflict) creates the missing parent
+   * directories first.
+   *
+   * @param path
+   * @param withParents
+   */
+  final void createCollection(String path, boolean withParents) throws IOException {
+    console.info("Create remote directory '%s'", path);
+    try {
+      getSardine().createDirectory(getResource(path));
+      collections.add(path, true);
+      collections.addEmpty(path);
+    } catch (SardineException e) {
+      int index = path.lastIndexOf('/');
+      if (e.getStatusCode() == HttpStatus.SC_METHOD_NOT_ALLOWED) {
+        collections.add(path, false); // Created concurrently
+      } else if (e.getStatusCode() == HttpStatus.SC_CONFLICT && withParents && index > 0) {
+        createCollection(path.substring(0, index), true);
+        createCollection(path, false);
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Creates the child directories of the parent. The parent is listed with a single PROPFIND
+   * first, unless all of its child directories are already known.
+   *
+   * @param parent
+   * @param children
+   */
+  private void createDirectories(String parent, List<String> children) throws IOException {
+    if (!collections.isListed(parent) && children.stream().anyMatch(c -> !collections.contains(c))) {
+      getRemoteFiles(parent);
+    }
+    for (String child : children) {
+      createDirectory(child);
+    }
+  }
+
+  /**
+   * Lists the directory with a PROPFIND of depth 1, remembers all child directories and returns
+   * the files by name. The directory of a chunked file is returned like a file.
+   *
+   * @param path
+   */
+  private Map<String, DavResource> list(String path) throws IOException {
+    String resource = getResource(path);
+    int depth = WebDAV.getDepth(new URL(resource).getPath());
+    Map<String, DavResource> files = new HashMap<>();
+    for (DavResource child : getSardine().list(resource, 1)) {
+      if (WebDAV.getDepth(child.getPath()) != depth + 1) {
+        continue;
+      }
+      if (child.isDirectory()) {
+        collections.add(String.format("%s/%s", path, child.getName()), false);
+      }
+      if (!child.isDirectory() || child.getName().endsWith(ChunkedTransfer.CHUNKS)) {
+        files.put(child.getName(), child);
+      }
+    }
+    collections.add(path, true);
+    return files;
+  }
+
+  /**
+   * Get the number of segments of the URL path.
+   *
+   * @param path
+   */
+  private static int getDepth(String path) {
+    return (int) Arrays.stream(path.split("/")).filter(s -> !s.isEmpty()).count();
+  }
+
+  /**
+   * Lists the entries of the directory with their attributes, directories first and files by the
+   * length of their name.
+   *
+   * @param directory
+   */
+  private static Map<File, BasicFileAttributes> listSorted(File directory) throws IOException {
+    List<Map.Entry<File, BasicFileAttributes>> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+      for (Path entry : stream) {
+        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+        entries.add(new AbstractMap.SimpleEntry<>(entry.toFile(), attributes));
+      }
+    }
+    entries.sort(DIRECTORY_FIRST);
+
+    Map<File, BasicFileAttributes> files = new LinkedHashMap<>();
+    entries.forEach(e -> files.put(e.getKey(), e.getValue()));
+    return files;
+  }
+
+  private static final Comparator<Map.Entry<File, BasicFileAttributes>> DIRECTORY_FIRST =
+      new Comparator<Map.Entry<File, BasicFileAttributes>>() {
+
+        @Override
+        public int compare(Map.Entry<File, BasicFileAttributes> o1, Map.Entry<File, BasicFileAttributes> o2) {
+          boolean directory1 = o1.getValue().isDirectory();
+          boolean directory2 = o2.getValue().isDirectory();
+          if (directory1 && !directory2)
+            return -1;
+          if (!directory1 && directory2)
+            return 1;
+          if (directory1 && directory2)
+            return 0;
+
+          // due bug in mod_dav on filename paths
+          return Integer.valueOf(o1.getKey().getName().length())
+              .compareTo(Integer.valueOf(o2.getKey().getName().length()));
+        }
+      };
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.impl.SardineImpl;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import java.io.IOException;
+
+/**
+ * The {@link WebDAVClient} extends the {@link SardineImpl} with access to the raw responses, for
+ * requests whose status and headers matter to the caller, like HEAD or partial GET requests.
+ */
+public class WebDAVClient extends SardineImpl {
+
+  /**
+   * Constructs an instance of {@link WebDAVClient}.
+   *
+   * @param builder
+   * @param username
+   * @param password
+   */
+  public WebDAVClient(HttpClientBuilder builder, String username, String password) {
+    super(builder, username, password);
+  }
+
+  /**
+   * Executes the request and returns the response, whatever its status is. The caller has to
+   * consume the entity of the response, to release the connection.
+   *
+   * @param request
+   */
+  public final HttpResponse send(HttpRequestBase request) throws IOException {
+    return execute(request);
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.github.sardine.Sardine;
+import com.github.sardine.impl.SardineRedirectStrategy;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
+
+/**
+ * The {@link WebDAVClients} is the plugin wide registry of {@link Sardine} clients. A client is
+ * created once per store URL and credentials and keeps its connections alive in a pool, so that
+ * subsequent requests can reuse them without a new handshake and authentication challenge. If the
+ * connection limit of the store changes, the client is replaced and the old one is shut down. The
+ * shared cache of remote collections is replaced, once its time to live changes, and the local
+ * cache, once its size or the use of links changes.
+ */
+public class WebDAVClients implements Closeable {
+
+  private static final long IDLE_TIMEOUT = 30;
+
+
+  private final Map<Key, Client>          clients     = new ConcurrentHashMap<>();
+  private final Map<Key, CollectionCache> collections = new ConcurrentHashMap<>();
+  private final Map<File, ArtifactCache>  caches      = new ConcurrentHashMap<>();
+
+  /**
+   * Get the shared {@link Sardine} client for the store, creating it on first use.
+   *
+   * @param config
+   */
+  public final synchronized WebDAVClient lease(WebDavStoreConfig config) {
+    Key key = new Key(config);
+    Client client = clients.get(key);
+    if (client != null && client.connections != config.getMaxConnections()) {
+      clients.remove(key);
+      try {
+        client.sardine.shutdown();
+      } catch (IOException e) {
+        // The connections of the replaced client are released anyway
+      }
+      client = null;
+    }
+    if (client == null) {
+      client = new Client(WebDAVClients.create(config), config.getMaxConnections());
+      clients.put(key, client);
+    }
+    return client.sardine;
+  }
+
+  /**
+   * Get the {@link CollectionCache} shared by all requests to the store. Returns
+   * <code>null</code> if the store doesn't define a time to live for cached collections. If the
+   * time to live changes, the cache is replaced.
+   *
+   * @param config
+   */
+  final CollectionCache getCollections(WebDavStoreConfig config) {
+    if (config.getCacheTimeout() == 0) {
+      return null;
+    }
+    long timeToLive = TimeUnit.SECONDS.toMillis(config.getCacheTimeout());
+    return collections.compute(new Key(config), (k, c) -> (c != null && c.getTimeToLive() == timeToLive) ? c
+        : new CollectionCache(config.getCacheTimeout(), TimeUnit.SECONDS));
+  }
+
+  /**
+   * Get the {@link ArtifactCache} of the agent, that is shared by all stores using the same
+   * directory. Returns <code>null</code> if the store doesn't define a local cache. If the size or
+   * the use of links changes, the cache is replaced and the changes of the old one are written.
+   *
+   * @param config
+   */
+  final synchronized ArtifactCache getCache(WebDavStoreConfig config) {
+    if (config.getLocalCache() == null) {
+      return null;
+    }
+    File directory = new File(config.getLocalCache()).getAbsoluteFile();
+    ArtifactCache cache = caches.get(directory);
+    if (cache != null && (cache.getCapacity() != config.getLocalCacheSize()
+        || cache.isLink() != config.isLocalCacheLink())) {
+      caches.remove(directory);
+      try {
+        cache.close();
+      } catch (IOException e) {
+        // Only the entries recorded by the replaced cache are lost
+      }
+      cache = null;
+    }
+    if (cache == null) {
+      cache = new ArtifactCache(directory, config.getLocalCacheSize(), config.isLocalCacheLink());
+      caches.put(directory, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Shuts down all clients and closes their pooled connections, and writes the index of the local
+   * caches.
+   */
+  @Override
+  public final synchronized void close() throws IOException {
+    IOException exception = null;
+    for (Client client : clients.values()) {
+      try {
+        client.sardine.shutdown();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    for (ArtifactCache cache : caches.values()) {
+      try {
+        cache.close();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    clients.clear();
+    collections.clear();
+    caches.clear();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /**
+   * Creates a new {@link Sardine} client with a pool of keep-alive connections. Idle connections
+   * are evicted in the background, the number of connections per route is limited by the store
+   * configuration.
+   *
+   * @param config
+   */
+  private static WebDAVClient create(WebDavStoreConfig config) {
+    PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+    manager.setDefaultMaxPerRoute(config.getMaxConnections());
+    manager.setMaxTotal((int) Math.min(2L * config.getMaxConnections(), Integer.MAX_VALUE));
+    manager.setValidateAfterInactivity((int) TimeUnit.SECONDS.toMillis(1));
+
+    HttpClientBuilder builder = HttpClients.custom().setConnectionManager(manager)
+        .setKeepAliveStrategy(WebDAVClients.KEEP_ALIVE).evictExpiredConnections()
+        .evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS).setRedirectStrategy(new SardineRedirectStrategy())
+        .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+        .setDefaultRequestConfig(RequestConfig.custom().setExpectContinueEnabled(false).build());
+
+    WebDAVClient sardine = new WebDAVClient(builder, config.getUsername(), config.getPassword());
+    if (config.getUsername() != null) {
+      try {
+        sardine.enablePreemptiveAuthentication(new URL(config.getUrl()));
+      } catch (MalformedURLException e) {
+        // The request itself reports the invalid URL
+      }
+    }
+    return sardine;
+  }
+
+  /**
+   * Keeps connections alive as long as the server allows, but not beyond the idle timeout.
+   */
+  private static final ConnectionKeepAliveStrategy KEEP_ALIVE = (response, context) -> {
+    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+    long timeout = TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT);
+    return (duration < 0) ? timeout : Math.min(duration, timeout);
+  };
+
+  /**
+   * The {@link Client} is a pooled client with the connection limit it has been created for.
+   */
+  private static class Client {
+
+    private final WebDAVClient sardine;
+    private final int          connections;
+
+    /**
+     * Constructs an instance of {@link Client}.
+     *
+     * @param sardine
+     * @param connections
+     */
+    private Client(WebDAVClient sardine, int connections) {
+      this.sardine = sardine;
+      this.connections = connections;
+    }
+  }
+
+  /**
+   * The {@link Key} identifies a client by the store URL and the credentials.
+   */
+  private static class Key {
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    /**
+     * Constructs an instance of {@link Key}.
+     *
+     * @param config
+     */
+    private Key(WebDavStoreConfig config) {
+      this.url = config.getUrl();
+      this.username = config.getUsername();
+      this.password = config.getPassword();
+    }
+
+    @Override
+    public final int hashCode() {
+      return Objects.hash(url, username, password);
+    }
+
+    @Override
+    public final boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+
+      Key that = (Key) o;
+      return Objects.equals(url, that.url) && Objects.equals(username, that.username)
+          && Objects.equals(password, that.password);
+    }
+  }
+}
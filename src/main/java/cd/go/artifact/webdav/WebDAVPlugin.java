@@ -19,12 +19,14 @@ import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
 import com.thoughtworks.go.plugin.api.annotation.Extension;
 import com.thoughtworks.go.plugin.api.annotation.Load;
+import com.thoughtworks.go.plugin.api.annotation.UnLoad;
 import com.thoughtworks.go.plugin.api.exceptions.UnhandledRequestTypeException;
 import com.thoughtworks.go.plugin.api.info.PluginContext;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Properties;
 
@@ -56,7 +58,8 @@ public class WebDAVPlugin implements GoPlugin {
   private static final String LOGGER_NAME = "go.processor.artifact.console-log";
 
 
-  private Console console;
+  private Console             console;
+  private final WebDAVClients clients = new WebDAVClients();
 
   @Load
   public void onLoad(PluginContext ctx) {
@@ -65,6 +68,15 @@ public class WebDAVPlugin implements GoPlugin {
         String.format("Loading plugin %s[%s].", properties.getProperty("name"), properties.getProperty("pluginId")));
   }
 
+  @UnLoad
+  public void onUnload(PluginContext ctx) {
+    try {
+      clients.close();
+    } catch (IOException e) {
+      LOGGER.error("Error while closing the WebDAV connections", e);
+    }
+  }
+
   @Override
   public GoPluginIdentifier pluginIdentifier() {
     return WebDAVPlugin.PLUGIN_IDENTIFIER;
@@ -107,9 +119,9 @@ public class WebDAVPlugin implements GoPlugin {
           return new PublishArtifactValidationHandler(request).execute();
 
         case ArtifactRequest.REQUEST_FETCH_ARTIFACT:
-          return new FetchArtifactHandler(console, request).execute();
+          return new FetchArtifactHandler(console, request, clients).execute();
         case ArtifactRequest.REQUEST_PUBLISH_ARTIFACT:
-          return new PublishArtifactHandler(console, request).execute();
+          return new PublishArtifactHandler(console, request, clients).execute();
 
         default:
           throw new UnhandledRequestTypeException(request.requestName());
@@ -18,8 +18,10 @@ import com.google.gson.reflect.TypeToken;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
+import cd.go.artifact.webdav.metadata.Metadata;
 import cd.go.artifact.webdav.utils.Util;
 
 public interface Validatable {
@@ -32,15 +34,14 @@ public interface Validatable {
     return Util.GSON.fromJson(toJSON(), new TypeToken<Map<String, String>>() {}.getType());
   }
 
-  default List<ValidationError> validateAllFieldsAsRequired() {
-    return toProperties().entrySet().stream()
-        .filter(entry -> Util.isBlank(entry.getValue()) && !entry.getKey().equals("Destination")
-            && !entry.getKey().equals("Username") && !entry.getKey().equals("Password"))
-        .map(entry -> new ValidationError(entry.getKey(), entry.getKey() + " must not be blank."))
+  default List<ValidationError> validateAllFields() {
+    Map<String, String> properties = toProperties();
+    return Metadata.listOf(getClass()).stream()
+        .map(metadata -> metadata.validate(properties.get(metadata.getKey()))).filter(Objects::nonNull)
         .collect(Collectors.toList());
   }
 
   default ValidationResult validate() {
-    return new ValidationResult(validateAllFieldsAsRequired());
+    return new ValidationResult(validateAllFields());
   }
 }
@@ -18,37 +18,44 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import cd.go.artifact.Console;
 import cd.go.artifact.RequestHandler;
 import cd.go.artifact.model.FetchRequest;
 import cd.go.artifact.model.FetchResponse;
+import cd.go.artifact.webdav.Checksum;
+import cd.go.artifact.webdav.ContentStore;
+import cd.go.artifact.webdav.FetchIndex;
+import cd.go.artifact.webdav.Location;
 import cd.go.artifact.webdav.WebDAV;
-import cd.go.artifact.webdav.model.StoreConfig;
+import cd.go.artifact.webdav.WebDAVClients;
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
 
 public class FetchArtifactHandler implements RequestHandler {
 
-  private final Console      console;
-  private final FetchRequest request;
+  private final Console       console;
+  private final FetchRequest  request;
+  private final WebDAVClients clients;
 
 
-  public FetchArtifactHandler(Console console, GoPluginApiRequest request) {
+  public FetchArtifactHandler(Console console, GoPluginApiRequest request, WebDAVClients clients) {
     this.console = console;
     this.request = FetchRequest.of(request.requestBody());
+    this.clients = clients;
   }
 
   @Override
   public GoPluginApiResponse execute() {
     File workingDir = new File(request.getAgentWorkingDir());
-    StoreConfig storeConfig = request.getStoreConfig();
+    WebDavStoreConfig storeConfig = request.getStoreConfig();
 
     try {
       Map<String, String> metadata = request.getMetadata();
@@ -61,26 +68,32 @@ public class FetchArtifactHandler implements RequestHandler {
       console.info("Retrieving file '%s' from WebDAV '%s'.", relativePath, storeConfig.getUrl());
 
       FetchResponse response = new FetchResponse();
-      WebDAV webDAV = new WebDAV(storeConfig.getUrl(), console, storeConfig.getUsername(), storeConfig.getPassword());
-      try (InputStream reader = webDAV.pull(relativePath)) {
-        Path path = Paths.get(relativePath);
-        File file = new File(workingDir, path.getName(path.getNameCount() - 1).toString());
-        file.getParentFile().mkdirs();
-
-        console.info("Storing file to '%s'", file.getAbsolutePath());
-
-        try (OutputStream writer = new BufferedOutputStream(new FileOutputStream(file))) {
-          int read_length = -1;
-          while ((read_length = reader.read()) != -1) {
-            writer.write(read_length);
+      FetchIndex index = FetchIndex.load(workingDir);
+      try (WebDAV webDAV = new WebDAV(storeConfig, console, clients)) {
+        webDAV.setFetchIndex(index);
+        if (metadata.containsKey("Digests")) {
+          webDAV.setDigests(Checksum.of(metadata.get("Checksum")), FetchArtifactHandler.getDigests(metadata));
+        }
+        if (ContentStore.isManifest(relativePath)) {
+          for (Map.Entry<String, String> entry : ContentStore.readManifest(webDAV, relativePath).entrySet()) {
+            webDAV.pull(entry.getValue(), new File(workingDir, entry.getKey()));
+          }
+        } else {
+          List<Location> locations = FetchArtifactHandler.getLocations(webDAV, metadata, relativePath);
+          String base = Location.getBase(locations);
+          Set<String> paths = new HashSet<>();
+          for (Location location : locations) {
+            if (paths.add(location.getPath())) {
+              File file = new File(workingDir, location.getPath().substring(base.length()));
+              FetchArtifactHandler.fetch(webDAV, location, file);
+            }
           }
-          writer.flush();
         }
-
-        console.info("File '%s' stored.", file.getAbsolutePath());
-
+        webDAV.await();
+        index.save();
+        console.info("Source '%s' successfully pulled from WebDAV '%s': %s.", relativePath, storeConfig.getUrl(),
+            webDAV.getSummary());
       }
-      console.info("Source '%s' successfully pulled from WebDAV '%s'.", relativePath, storeConfig.getUrl());
 
       return DefaultGoPluginApiResponse.success(response.toString());
     } catch (Exception e) {
@@ -90,6 +103,65 @@ public class FetchArtifactHandler implements RequestHandler {
     }
   }
 
+  /**
+   * Get the published locations. Metadata of an older publish has a single location, whose type
+   * is requested from the server.
+   *
+   * @param webDAV
+   * @param metadata
+   * @param location
+   */
+  private static List<Location> getLocations(WebDAV webDAV, Map<String, String> metadata, String location)
+      throws IOException {
+    if (metadata.containsKey("Locations")) {
+      return Location.parse(metadata.get("Locations"));
+    } else if (metadata.containsKey("Bundle")) {
+      return Collections.singletonList(new Location(Location.Type.BUNDLE, location, -1));
+    }
+    Location.Type type = webDAV.isDirectory(location) ? Location.Type.DIRECTORY : Location.Type.FILE;
+    return Collections.singletonList(new Location(type, location, -1));
+  }
+
+  /**
+   * Get the digests of the published files and bundles by their path, that are listed one per line
+   * like the output of <code>sha256sum</code>.
+   *
+   * @param metadata
+   */
+  private static Map<String, String> getDigests(Map<String, String> metadata) {
+    Map<String, String> digests = new HashMap<>();
+    for (String line : metadata.get("Digests").split("\n")) {
+      int index = line.indexOf("  ");
+      if (index > 0) {
+        digests.put(line.substring(index + 2), line.substring(0, index));
+      }
+    }
+    return digests;
+  }
+
+  /**
+   * Fetches the location into the file, that has the path of the location relative to the common
+   * base of all locations. Files and directories are queued for download, so that all locations are
+   * fetched at the same time. A bundle is extracted next to the file.
+   *
+   * @param webDAV
+   * @param location
+   * @param file
+   */
+  private static void fetch(WebDAV webDAV, Location location, File file) throws IOException {
+    String path = location.getPath();
+    switch (location.getType()) {
+      case BUNDLE:
+        webDAV.pullBundle(path, file.getParentFile());
+        break;
+      case DIRECTORY:
+        webDAV.pullAll(path, file);
+        break;
+      default:
+        webDAV.pull(path, file);
+    }
+  }
+
   private static String validateLocation(Map<String, String> metadata) {
     if (metadata == null) {
       throw new RuntimeException(String.format(
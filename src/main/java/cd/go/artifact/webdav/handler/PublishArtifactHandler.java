@@ -18,14 +18,22 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import cd.go.artifact.Console;
 import cd.go.artifact.RequestHandler;
 import cd.go.artifact.model.Metadata;
+import cd.go.artifact.util.Destination;
+import cd.go.artifact.util.Excludes;
 import cd.go.artifact.util.FileMapper;
+import cd.go.artifact.webdav.Location;
 import cd.go.artifact.webdav.WebDAV;
+import cd.go.artifact.webdav.WebDAVClients;
 import cd.go.artifact.webdav.model.ArtifactPlanConfig;
 import cd.go.artifact.webdav.model.PublishRequest;
 import cd.go.artifact.webdav.model.WebDavStoreConfig;
@@ -67,6 +75,7 @@ public class PublishArtifactHandler implements RequestHandler {
 
   private final Console        console;
   private final PublishRequest request;
+  private final WebDAVClients  clients;
 
 
   /**
@@ -74,10 +83,12 @@ public class PublishArtifactHandler implements RequestHandler {
    *
    * @param console
    * @param request
+   * @param clients
    */
-  public PublishArtifactHandler(Console console, GoPluginApiRequest request) {
+  public PublishArtifactHandler(Console console, GoPluginApiRequest request, WebDAVClients clients) {
     this.console = console;
     this.request = PublishRequest.fromJSON(request.requestBody());
+    this.clients = clients;
   }
 
   /**
@@ -91,7 +102,10 @@ public class PublishArtifactHandler implements RequestHandler {
    * <pre>
    * {
    *   "metadata":{
-   *     "location":"gocd/gocd-demo:v23"
+   *     "Location":"build/app.jar",
+   *     "Locations":"f 1024 build/app.jar\nd 52311 build/docs",
+   *     "Checksum":"sha256",
+   *     "Digests":"9f86d081884c7d65...  build/app.jar"
    *   }
    * }
    * </pre>
@@ -103,29 +117,64 @@ public class PublishArtifactHandler implements RequestHandler {
     WebDavStoreConfig storeConfig = request.getArtifactStore().getStoreConfig();
 
     String source = planConfig.getSource();
-    String target = planConfig.getTarget();
+    Destination target = Destination.compile(planConfig.getTarget(), request.getEnvironment());
 
-    try {
-      WebDAV webDav = new WebDAV(storeConfig.getUrl(), console, storeConfig.getUsername(), storeConfig.getPassword());
-      if (!target.isEmpty()) {
-        webDav.mkdirs(target);
+    try (WebDAV webDav = new WebDAV(storeConfig, console, clients)) {
+      Excludes excludes = Excludes.parse(planConfig.getExclude(), Paths.get(workingDir));
+      webDav.setExcludes(excludes);
+      if (!target.getDirectory().isEmpty()) {
+        webDav.mkdirs(target.getDirectory());
       }
 
       List<String> destinations = new ArrayList<>();
-      for (FileMapper mapper : FileMapper.list(source, workingDir)) {
+      List<Location> locations = new ArrayList<>();
+      for (FileMapper mapper : FileMapper.list(source, workingDir, storeConfig.getScanThreads(), excludes)) {
         String path = mapper.remap(target);
-        destinations.add(path);
-        if (mapper.getFile().isFile()) {
+        Location.Type type;
+        long size = -1;
+        if (mapper.isFile()) {
           webDav.push(path, mapper.getFile());
+          type = Location.Type.FILE;
+          size = mapper.getSize();
+        } else if (storeConfig.isBundle() && webDav.getContentStore() == null) {
+          path = webDav.pushBundle(path, mapper.getFile());
+          type = Location.Type.BUNDLE;
         } else {
-          webDav.pushAll(path, mapper.getFile());
+          size = webDav.pushAll(path, mapper.getFile());
+          type = Location.Type.DIRECTORY;
         }
+        destinations.add(path);
+        locations.add(new Location(type, path, size));
       }
+      webDav.await();
 
-      console.info("Source file '%s' pushed to WebDAV '%s'.", source, storeConfig.getUrl());
+      if (destinations.isEmpty()) {
+        String message = String.format("Failed to publish %s: no files match the source '%s'",
+            request.getArtifactPlan(), source);
+        console.error(message);
+        return DefaultGoPluginApiResponse.error(message);
+      }
+
+      String location = destinations.get(0);
+      if (webDav.getContentStore() != null) {
+        location = webDav.getContentStore().writeManifest(destinations);
+      }
+
+      console.info("Source file '%s' pushed to WebDAV '%s': %s.", source, storeConfig.getUrl(), webDav.getSummary());
 
       Metadata response = new Metadata();
-      response.addMetadata("Location", destinations.get(0));
+      response.addMetadata("Location", location);
+      if (webDav.getContentStore() == null) {
+        response.addMetadata("Locations", Location.format(locations));
+        if (locations.get(0).getType() == Location.Type.BUNDLE) {
+          response.addMetadata("Bundle", "tar");
+        }
+        String digests = PublishArtifactHandler.getDigests(locations, webDav.getDigests());
+        if (!digests.isEmpty()) {
+          response.addMetadata("Checksum", storeConfig.getChecksum().name().toLowerCase(Locale.ROOT));
+          response.addMetadata("Digests", digests);
+        }
+      }
       return DefaultGoPluginApiResponse.success(response.toString());
     } catch (Exception e) {
       console.error("Failed to publish %s: %s", request.getArtifactPlan(), e);
@@ -134,4 +183,16 @@ public class PublishArtifactHandler implements RequestHandler {
           .error(String.format("Failed to publish %s: %s", request.getArtifactPlan(), e.getMessage()));
     }
   }
+
+  /**
+   * Get the digests of the published files and bundles, one per line like the output of
+   * <code>sha256sum</code>. The digests of the files in a directory are kept in their sidecars.
+   *
+   * @param locations
+   * @param digests
+   */
+  private static String getDigests(List<Location> locations, Map<String, String> digests) {
+    return locations.stream().filter(l -> digests.containsKey(l.getPath()))
+        .map(l -> String.format("%s  %s", digests.get(l.getPath()), l.getPath())).collect(Collectors.joining("\n"));
+  }
 }
@@ -21,6 +21,9 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 
+import cd.go.artifact.webdav.annotation.ValidationError;
+import cd.go.artifact.webdav.utils.Util;
+
 /**
  * The {@link Metadata} class defines the metadata model. This usually is used for the metadata
  * request.
@@ -94,6 +97,20 @@ public class Metadata {
     return metadata.secure();
   }
 
+  /**
+   * Validates the value against the definition of the metadata. Returns <code>null</code> if the
+   * value is valid.
+   *
+   * @param value
+   */
+  public final ValidationError validate(String value) {
+    if (Util.isBlank(value)) {
+      return isRequired() ? new ValidationError(key, key + " must not be blank.") : null;
+    }
+    String message = getType().validate(value.trim());
+    return (message == null) ? null : new ValidationError(key, key + " " + message + ".");
+  }
+
   /**
    * Get the list of {@link Metadata} from the class definition.
    *
@@ -14,6 +14,12 @@
 
 package cd.go.artifact.webdav.metadata;
 
+import java.nio.file.Paths;
+
+import cd.go.artifact.util.Excludes;
+import cd.go.artifact.webdav.Checksum;
+import cd.go.artifact.webdav.Compression;
+
 public enum MetadataType {
 
   STRING {
@@ -29,11 +35,74 @@ public enum MetadataType {
     @Override
     public String validate(String value) {
       try {
-        if (Long.parseLong(value) >= 0) {
+        if (Integer.parseInt(value) > 0) {
+          return null;
+        }
+      } catch (Exception e) {}
+      return "must be positive decimal up to " + Integer.MAX_VALUE;
+    }
+  },
+
+  NON_NEGATIVE_DECIMAL {
+
+    @Override
+    public String validate(String value) {
+      try {
+        if (Integer.parseInt(value) >= 0) {
           return null;
         }
       } catch (Exception e) {}
-      return "must be positive decimal";
+      return "must be 0 or positive decimal up to " + Integer.MAX_VALUE;
+    }
+  },
+
+  BOOLEAN {
+
+    @Override
+    public String validate(String value) {
+      if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+        return null;
+      }
+      return "must be true or false";
+    }
+  },
+
+  COMPRESSION {
+
+    @Override
+    public String validate(String value) {
+      try {
+        Compression.of(value);
+        return null;
+      } catch (IllegalArgumentException e) {
+        return "must be none, gzip or fast";
+      }
+    }
+  },
+
+  CHECKSUM {
+
+    @Override
+    public String validate(String value) {
+      try {
+        Checksum.of(value);
+        return null;
+      } catch (IllegalArgumentException e) {
+        return "must be none, sha256, md5 or crc32c";
+      }
+    }
+  },
+
+  EXCLUDES {
+
+    @Override
+    public String validate(String value) {
+      try {
+        Excludes.parse(value, Paths.get(""));
+        return null;
+      } catch (IllegalArgumentException e) {
+        return "must be glob patterns separated by commas or line breaks";
+      }
     }
   },
 
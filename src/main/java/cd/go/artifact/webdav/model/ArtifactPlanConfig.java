@@ -23,6 +23,8 @@ public abstract class ArtifactPlanConfig implements Validatable {
 
   abstract public String getTarget();
 
+  abstract public String getExclude();
+
   @Override
   public String toString() {
     return toJSON();
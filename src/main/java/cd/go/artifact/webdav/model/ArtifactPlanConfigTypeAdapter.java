@@ -23,7 +23,8 @@ public class ArtifactPlanConfigTypeAdapter
       throws JsonParseException {
     JsonObject jsonObject = json.getAsJsonObject();
     if (isBuildFileConfig(jsonObject)) {
-      return new WebDavPlanConfig(jsonObject.get("Source").getAsString(), parseDestination(jsonObject));
+      return new WebDavPlanConfig(jsonObject.get("Source").getAsString(), parseDestination(jsonObject),
+          parseExclude(jsonObject));
     } else {
       throw new JsonParseException("Ambiguous or unknown json. `Source` property must be specified.");
     }
@@ -37,6 +38,14 @@ public class ArtifactPlanConfigTypeAdapter
     return Optional.empty();
   }
 
+  private Optional<String> parseExclude(JsonObject jsonObject) {
+    JsonElement exclude = jsonObject.get("Exclude");
+    if (exclude != null && Util.isNotBlank(exclude.getAsString())) {
+      return Optional.of(exclude.getAsString());
+    }
+    return Optional.empty();
+  }
+
   @Override
   public JsonElement serialize(ArtifactPlanConfig src, Type typeOfSrc, JsonSerializationContext context) {
     if (src instanceof WebDavPlanConfig) {
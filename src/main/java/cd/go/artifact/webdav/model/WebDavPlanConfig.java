@@ -8,6 +8,7 @@ import java.util.Objects;
 import java.util.Optional;
 
 import cd.go.artifact.webdav.metadata.MetadataField;
+import cd.go.artifact.webdav.metadata.MetadataType;
 
 /**
  * The {@link WebDavPlanConfig} get plan config for WebDAV.
@@ -17,6 +18,7 @@ import cd.go.artifact.webdav.metadata.MetadataField;
  *   "configuration":{
  *     "Source": "",
  *     "Destination": "gocd/gocd-demo",
+ *     "Exclude": "*.o, tmp/"
  *   },
  *   "id":"app-image",
  *   "storeId":"dockerhub"
@@ -27,7 +29,7 @@ public class WebDavPlanConfig extends ArtifactPlanConfig {
 
   @Expose
   @SerializedName("Source")
-  @MetadataField(key = "Source")
+  @MetadataField(key = "Source", required = true)
   private String source;
 
   @Expose
@@ -35,9 +37,19 @@ public class WebDavPlanConfig extends ArtifactPlanConfig {
   @MetadataField(key = "Destination")
   private String target;
 
+  @Expose
+  @SerializedName("Exclude")
+  @MetadataField(key = "Exclude", type = MetadataType.EXCLUDES)
+  private String exclude;
+
   public WebDavPlanConfig(String source, Optional<String> destination) {
+    this(source, destination, Optional.empty());
+  }
+
+  public WebDavPlanConfig(String source, Optional<String> destination, Optional<String> exclude) {
     this.source = source;
     this.target = destination.orElse("");
+    this.exclude = exclude.orElse(null);
   }
 
   @Override
@@ -50,6 +62,11 @@ public class WebDavPlanConfig extends ArtifactPlanConfig {
     return target;
   }
 
+  @Override
+  public String getExclude() {
+    return exclude;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o)
@@ -57,11 +74,12 @@ public class WebDavPlanConfig extends ArtifactPlanConfig {
     if (o == null || getClass() != o.getClass())
       return false;
     WebDavPlanConfig that = (WebDavPlanConfig) o;
-    return Objects.equals(source, that.source) && Objects.equals(target, that.target);
+    return Objects.equals(source, that.source) && Objects.equals(target, that.target)
+        && Objects.equals(exclude, that.exclude);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(source, target);
+    return Objects.hash(source, target, exclude);
   }
 }
@@ -17,8 +17,12 @@ package cd.go.artifact.webdav.model;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
+import cd.go.artifact.webdav.Checksum;
+import cd.go.artifact.webdav.Compression;
 import cd.go.artifact.webdav.annotation.Validatable;
+import cd.go.artifact.webdav.annotation.ValidationResult;
 import cd.go.artifact.webdav.metadata.MetadataField;
+import cd.go.artifact.webdav.metadata.MetadataType;
 import cd.go.artifact.webdav.utils.Util;
 
 /**
@@ -26,6 +30,13 @@ import cd.go.artifact.webdav.utils.Util;
  */
 public class WebDavStoreConfig implements Validatable {
 
+  private static final int  DEFAULT_CONNECTIONS = 8;
+  private static final int  DEFAULT_THREADS     = 4;
+  private static final int  DEFAULT_CHUNK_SIZE  = 64;
+  private static final int  DEFAULT_CACHE_SIZE  = 1024;
+  private static final long MEGABYTE            = 1024 * 1024;
+
+
   @Expose
   @SerializedName("URL")
   @MetadataField(key = "URL", required = true)
@@ -41,6 +52,91 @@ public class WebDavStoreConfig implements Validatable {
   @MetadataField(key = "Password", secure = true)
   private String password;
 
+  @Expose
+  @SerializedName("MaxConnections")
+  @MetadataField(key = "MaxConnections", type = MetadataType.POSITIVE_DECIMAL)
+  private String maxConnections;
+
+  @Expose
+  @SerializedName("Threads")
+  @MetadataField(key = "Threads", type = MetadataType.POSITIVE_DECIMAL)
+  private String threads;
+
+  @Expose
+  @SerializedName("ScanThreads")
+  @MetadataField(key = "ScanThreads", type = MetadataType.POSITIVE_DECIMAL)
+  private String scanThreads;
+
+  @Expose
+  @SerializedName("CacheTimeout")
+  @MetadataField(key = "CacheTimeout", type = MetadataType.NON_NEGATIVE_DECIMAL)
+  private String cacheTimeout;
+
+  @Expose
+  @SerializedName("Optimistic")
+  @MetadataField(key = "Optimistic", type = MetadataType.BOOLEAN)
+  private String optimistic;
+
+  @Expose
+  @SerializedName("ChunkSize")
+  @MetadataField(key = "ChunkSize", type = MetadataType.POSITIVE_DECIMAL)
+  private String chunkSize;
+
+  @Expose
+  @SerializedName("ChunkThreshold")
+  @MetadataField(key = "ChunkThreshold", type = MetadataType.NON_NEGATIVE_DECIMAL)
+  private String chunkThreshold;
+
+  @Expose
+  @SerializedName("Incremental")
+  @MetadataField(key = "Incremental", type = MetadataType.BOOLEAN)
+  private String incremental;
+
+  @Expose
+  @SerializedName("ContentAddressed")
+  @MetadataField(key = "ContentAddressed", type = MetadataType.BOOLEAN)
+  private String contentAddressed;
+
+  @Expose
+  @SerializedName("Compression")
+  @MetadataField(key = "Compression", type = MetadataType.COMPRESSION)
+  private String compression;
+
+  @Expose
+  @SerializedName("Bundle")
+  @MetadataField(key = "Bundle", type = MetadataType.BOOLEAN)
+  private String bundle;
+
+  @Expose
+  @SerializedName("Fsync")
+  @MetadataField(key = "Fsync", type = MetadataType.BOOLEAN)
+  private String fsync;
+
+  @Expose
+  @SerializedName("RangeThreshold")
+  @MetadataField(key = "RangeThreshold", type = MetadataType.NON_NEGATIVE_DECIMAL)
+  private String rangeThreshold;
+
+  @Expose
+  @SerializedName("LocalCache")
+  @MetadataField(key = "LocalCache")
+  private String localCache;
+
+  @Expose
+  @SerializedName("LocalCacheSize")
+  @MetadataField(key = "LocalCacheSize", type = MetadataType.POSITIVE_DECIMAL)
+  private String localCacheSize;
+
+  @Expose
+  @SerializedName("LocalCacheLink")
+  @MetadataField(key = "LocalCacheLink", type = MetadataType.BOOLEAN)
+  private String localCacheLink;
+
+  @Expose
+  @SerializedName("Checksum")
+  @MetadataField(key = "Checksum", type = MetadataType.CHECKSUM)
+  private String checksum;
+
 
   /**
    * Constructs an instance of {@link WebDavStoreConfig}.
@@ -81,6 +177,151 @@ public class WebDavStoreConfig implements Validatable {
     return password;
   }
 
+  /**
+   * Get the maximum number of pooled connections per route.
+   */
+  public final int getMaxConnections() {
+    return Util.toInt(maxConnections, DEFAULT_CONNECTIONS);
+  }
+
+  /**
+   * Get the number of parallel transfers.
+   */
+  public final int getThreads() {
+    return Util.toInt(threads, DEFAULT_THREADS);
+  }
+
+  /**
+   * Get the number of directories, that are listed in parallel while the source files are
+   * matched. The default of 1 lists them one after another.
+   */
+  public final int getScanThreads() {
+    return Util.toInt(scanThreads, 1);
+  }
+
+  /**
+   * Get the time in seconds the agent remembers existing remote directories across requests, 0
+   * remembers them only for a single request.
+   */
+  public final int getCacheTimeout() {
+    return Util.toInt(cacheTimeout, 0);
+  }
+
+  /**
+   * Returns <code>true</code> if files are published before their remote directories are created.
+   */
+  public final boolean isOptimistic() {
+    return Util.toBoolean(optimistic, false);
+  }
+
+  /**
+   * Get the size of the parts of a chunked upload in bytes, configured in megabytes.
+   */
+  public final long getChunkSize() {
+    return Util.toInt(chunkSize, DEFAULT_CHUNK_SIZE) * MEGABYTE;
+  }
+
+  /**
+   * Get the file size in bytes, above which files are uploaded in parts. The threshold is
+   * configured in megabytes, 0 disables chunked uploads.
+   */
+  public final long getChunkThreshold() {
+    return Util.toInt(chunkThreshold, 0) * MEGABYTE;
+  }
+
+  /**
+   * Returns <code>true</code> if files that are unchanged on the remote storage are not uploaded
+   * again. A file of the same length, that hasn't been modified since it was pushed, is unchanged.
+   * Other files are compared with the digest of their sidecar, so that incremental publishing needs
+   * a {@link Checksum}.
+   */
+  public final boolean isIncremental() {
+    return Util.toBoolean(incremental, false);
+  }
+
+  /**
+   * Returns <code>true</code> if files are stored once by their content hash and each publish
+   * writes a manifest of its files.
+   */
+  public final boolean isContentAddressed() {
+    return Util.toBoolean(contentAddressed, false);
+  }
+
+  /**
+   * Get the {@link Compression} of uploaded files.
+   */
+  public final Compression getCompression() {
+    return Compression.of(compression);
+  }
+
+  /**
+   * Returns <code>true</code> if directories are published as a single tar archive.
+   */
+  public final boolean isBundle() {
+    return Util.toBoolean(bundle, false);
+  }
+
+  /**
+   * Returns <code>true</code> if each fetched file is forced to the storage device before it is
+   * closed.
+   */
+  public final boolean isFsync() {
+    return Util.toBoolean(fsync, false);
+  }
+
+  /**
+   * Get the file size in bytes, above which files are fetched with parallel byte-range requests.
+   * The threshold is configured in megabytes, 0 disables ranged downloads.
+   */
+  public final long getRangeThreshold() {
+    return Util.toInt(rangeThreshold, 0) * MEGABYTE;
+  }
+
+  /**
+   * Get the directory of the agent, that caches fetched files, or <code>null</code> if fetched
+   * files aren't cached.
+   */
+  public final String getLocalCache() {
+    return Util.isBlank(localCache) ? null : localCache.trim();
+  }
+
+  /**
+   * Get the capacity of the local cache in bytes. The capacity is configured in megabytes.
+   */
+  public final long getLocalCacheSize() {
+    return Util.toInt(localCacheSize, DEFAULT_CACHE_SIZE) * MEGABYTE;
+  }
+
+  /**
+   * Returns <code>true</code> if cached files are hard linked into the working directory instead
+   * of being copied. Linked files share their content with the cache, so that a job must replace a
+   * fetched file instead of modifying it in place; a modified entry is dropped from the cache.
+   */
+  public final boolean isLocalCacheLink() {
+    return Util.toBoolean(localCacheLink, false);
+  }
+
+  /**
+   * Get the {@link Checksum} of published files, that verifies fetched files.
+   */
+  public final Checksum getChecksum() {
+    return Checksum.of(checksum);
+  }
+
+  /**
+   * Validates the fields, and that incremental publishing has a {@link Checksum} to compare the
+   * files, whose length or modification time is ambiguous.
+   */
+  @Override
+  public final ValidationResult validate() {
+    ValidationResult result = Validatable.super.validate();
+    if (!result.hasKey("Incremental") && !result.hasKey("Checksum") && isIncremental()
+        && getChecksum() == Checksum.NONE) {
+      result.addError("Incremental", "Incremental requires a Checksum to compare the published files.");
+    }
+    return result;
+  }
+
   /**
    * Returns a hash code value for the object.
    */
@@ -89,6 +330,23 @@ public class WebDavStoreConfig implements Validatable {
     int result = url != null ? url.hashCode() : 0;
     result = 31 * result + (username != null ? username.hashCode() : 0);
     result = 31 * result + (password != null ? password.hashCode() : 0);
+    result = 31 * result + (maxConnections != null ? maxConnections.hashCode() : 0);
+    result = 31 * result + (threads != null ? threads.hashCode() : 0);
+    result = 31 * result + (scanThreads != null ? scanThreads.hashCode() : 0);
+    result = 31 * result + (cacheTimeout != null ? cacheTimeout.hashCode() : 0);
+    result = 31 * result + (optimistic != null ? optimistic.hashCode() : 0);
+    result = 31 * result + (chunkSize != null ? chunkSize.hashCode() : 0);
+    result = 31 * result + (chunkThreshold != null ? chunkThreshold.hashCode() : 0);
+    result = 31 * result + (incremental != null ? incremental.hashCode() : 0);
+    result = 31 * result + (contentAddressed != null ? contentAddressed.hashCode() : 0);
+    result = 31 * result + (compression != null ? compression.hashCode() : 0);
+    result = 31 * result + (bundle != null ? bundle.hashCode() : 0);
+    result = 31 * result + (fsync != null ? fsync.hashCode() : 0);
+    result = 31 * result + (rangeThreshold != null ? rangeThreshold.hashCode() : 0);
+    result = 31 * result + (localCache != null ? localCache.hashCode() : 0);
+    result = 31 * result + (localCacheSize != null ? localCacheSize.hashCode() : 0);
+    result = 31 * result + (localCacheLink != null ? localCacheLink.hashCode() : 0);
+    result = 31 * result + (checksum != null ? checksum.hashCode() : 0);
     return result;
   }
 
@@ -108,7 +366,41 @@ public class WebDavStoreConfig implements Validatable {
       return false;
     if (username != null ? !username.equals(that.username) : that.username != null)
       return false;
-    return password != null ? password.equals(that.password) : that.password == null;
+    if (password != null ? !password.equals(that.password) : that.password != null)
+      return false;
+    if (maxConnections != null ? !maxConnections.equals(that.maxConnections) : that.maxConnections != null)
+      return false;
+    if (threads != null ? !threads.equals(that.threads) : that.threads != null)
+      return false;
+    if (scanThreads != null ? !scanThreads.equals(that.scanThreads) : that.scanThreads != null)
+      return false;
+    if (cacheTimeout != null ? !cacheTimeout.equals(that.cacheTimeout) : that.cacheTimeout != null)
+      return false;
+    if (optimistic != null ? !optimistic.equals(that.optimistic) : that.optimistic != null)
+      return false;
+    if (chunkSize != null ? !chunkSize.equals(that.chunkSize) : that.chunkSize != null)
+      return false;
+    if (chunkThreshold != null ? !chunkThreshold.equals(that.chunkThreshold) : that.chunkThreshold != null)
+      return false;
+    if (incremental != null ? !incremental.equals(that.incremental) : that.incremental != null)
+      return false;
+    if (contentAddressed != null ? !contentAddressed.equals(that.contentAddressed) : that.contentAddressed != null)
+      return false;
+    if (compression != null ? !compression.equals(that.compression) : that.compression != null)
+      return false;
+    if (bundle != null ? !bundle.equals(that.bundle) : that.bundle != null)
+      return false;
+    if (fsync != null ? !fsync.equals(that.fsync) : that.fsync != null)
+      return false;
+    if (rangeThreshold != null ? !rangeThreshold.equals(that.rangeThreshold) : that.rangeThreshold != null)
+      return false;
+    if (localCache != null ? !localCache.equals(that.localCache) : that.localCache != null)
+      return false;
+    if (localCacheSize != null ? !localCacheSize.equals(that.localCacheSize) : that.localCacheSize != null)
+      return false;
+    if (localCacheLink != null ? !localCacheLink.equals(that.localCacheLink) : that.localCacheLink != null)
+      return false;
+    return checksum != null ? checksum.equals(that.checksum) : that.checksum == null;
   }
 
 
@@ -51,6 +51,27 @@ public class Util {
     }
   }
 
+  /**
+   * Parses a number from the text, or returns the default value if the text is blank. The text is
+   * validated by {@link cd.go.artifact.webdav.metadata.MetadataType}, with the same range.
+   *
+   * @param text
+   * @param defaultValue
+   */
+  public static int toInt(String text, int defaultValue) {
+    return isBlank(text) ? defaultValue : Integer.parseInt(text.trim());
+  }
+
+  /**
+   * Parses a boolean from the text, or returns the default value if the text is blank.
+   *
+   * @param text
+   * @param defaultValue
+   */
+  public static boolean toBoolean(String text, boolean defaultValue) {
+    return isBlank(text) ? defaultValue : Boolean.parseBoolean(text.trim());
+  }
+
   public static boolean isNotBlank(final CharSequence cs) {
     return !isBlank(cs);
   }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DestinationTest {
+
+  private static final Map<String, String> ENVIRONMENT = new HashMap<>();
+
+  static {
+    ENVIRONMENT.put("GO_PIPELINE_NAME", "app");
+    ENVIRONMENT.put("GO_PIPELINE_COUNTER", "42");
+  }
+
+  @Test
+  public void testRenderIndexedPlaceholders() {
+    Destination destination = Destination.compile("rel/$1/$2.apk", ENVIRONMENT);
+    assertEquals("rel/a/b/release.apk", destination.render("x.apk", Arrays.asList("a/b", "release")));
+  }
+
+  @Test
+  public void testRenderNamedPlaceholders() {
+    Destination destination = Destination.compile("$GO_PIPELINE_NAME/$GO_PIPELINE_COUNTER/", ENVIRONMENT);
+    assertEquals("app/42/app.apk", destination.render("app.apk", Collections.emptyList()));
+  }
+
+  @Test
+  public void testUnknownNameIsEmpty() {
+    Destination destination = Destination.compile("rel/$UNKNOWN/$GO_PIPELINE_COUNTER", ENVIRONMENT);
+    assertEquals("rel/42", destination.render("app.apk", Collections.emptyList()));
+  }
+
+  @Test
+  public void testEmptyGroupLeavesNoEmptySegment() {
+    Destination destination = Destination.compile("rel/$1/$2.apk", ENVIRONMENT);
+    assertEquals("rel/release.apk", destination.render("x.apk", Arrays.asList("", "release")));
+    assertEquals("rel/.apk", destination.render("x.apk", Collections.emptyList()));
+  }
+
+  @Test
+  public void testTrailingSlashAppendsName() {
+    Destination destination = Destination.compile("rel/$1/", ENVIRONMENT);
+    assertEquals("rel/a/app.apk", destination.render("app.apk", Arrays.asList("a")));
+    assertEquals("rel/app.apk", destination.render("app.apk", Arrays.asList("")));
+  }
+
+  @Test
+  public void testDirectory() {
+    assertEquals("rel/42", Destination.compile("rel/$GO_PIPELINE_COUNTER", ENVIRONMENT).getDirectory());
+    assertEquals("rel/42", Destination.compile("rel/$GO_PIPELINE_COUNTER/x$1.apk", ENVIRONMENT).getDirectory());
+    assertEquals("", Destination.compile("$1.apk", ENVIRONMENT).getDirectory());
+  }
+}
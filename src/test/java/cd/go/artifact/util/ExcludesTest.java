@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ExcludesTest {
+
+  private static final Path ROOT = Paths.get("/work").toAbsolutePath();
+
+  @Test
+  public void testNameMatchesAtAnyDepth() {
+    Excludes excludes = Excludes.parse("*.o", ROOT);
+    assertTrue(excludes.isExcluded(ROOT.resolve("main.o"), false));
+    assertTrue(excludes.isExcluded(ROOT.resolve("src/lib/util.o"), false));
+    assertTrue(excludes.isExcluded(ROOT.resolve("src/objs.o"), true));
+    assertFalse(excludes.isExcluded(ROOT.resolve("src/main.c"), false));
+  }
+
+  @Test
+  public void testTrailingSlashMatchesDirectoriesOnly() {
+    Excludes excludes = Excludes.parse("tmp/", ROOT);
+    assertTrue(excludes.isExcluded(ROOT.resolve("tmp"), true));
+    assertTrue(excludes.isExcluded(ROOT.resolve("build/tmp"), true));
+    assertFalse(excludes.isExcluded(ROOT.resolve("tmp"), false));
+    assertFalse(excludes.isExcluded(ROOT.resolve("build/tmp"), false));
+  }
+
+  @Test
+  public void testPathMatchesRelativeToRoot() {
+    Excludes excludes = Excludes.parse("build/**/*.log", ROOT);
+    assertTrue(excludes.isExcluded(ROOT.resolve("build/reports/test.log"), false));
+    assertFalse(excludes.isExcluded(ROOT.resolve("build/test.log"), false));
+    assertFalse(excludes.isExcluded(ROOT.resolve("src/build/reports/test.log"), false));
+    assertFalse(excludes.isExcluded(ROOT.resolve("test.log"), false));
+  }
+
+  @Test
+  public void testPatternsSeparatedByCommasAndLineBreaks() {
+    Excludes excludes = Excludes.parse("*.o, .gradle/\r\ntmp/\n\n*.log,", ROOT);
+    assertTrue(excludes.isExcluded(ROOT.resolve("main.o"), false));
+    assertTrue(excludes.isExcluded(ROOT.resolve(".gradle"), true));
+    assertTrue(excludes.isExcluded(ROOT.resolve("tmp"), true));
+    assertTrue(excludes.isExcluded(ROOT.resolve("build.log"), false));
+    assertFalse(excludes.isExcluded(ROOT.resolve("main.c"), false));
+  }
+
+  @Test
+  public void testBlankTextExcludesNothing() {
+    assertTrue(Excludes.parse(null, ROOT).isEmpty());
+    assertTrue(Excludes.parse(" \n ", ROOT).isEmpty());
+    assertFalse(Excludes.parse(" , ", ROOT).isExcluded(ROOT.resolve("main.o"), false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPattern() {
+    Excludes.parse("[a-", ROOT);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class FileMapperTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private String workingDir;
+
+  @Before
+  public void setUp() throws IOException {
+    workingDir = folder.getRoot().getPath();
+    create("build/app.aab");
+    create("build/lib.aab");
+    create("build/app.apk");
+    create("build/outputs/app.apk");
+    create("build/a/outputs/debug.apk");
+    create("build/a/b/outputs/release.apk");
+    create("build/a/b/outputs/notes.txt");
+  }
+
+  @Test
+  public void testPercentMatchesAnyCharacters() throws IOException {
+    assertThat(remap("build/%.aab", "rel/"), contains("rel/app.aab", "rel/lib.aab"));
+    assertThat(remap("build/app.%", "rel/"), contains("rel/app.aab", "rel/app.apk"));
+    assertThat(remap("build/%", "rel/").size(), is(5)); // Includes the directories
+  }
+
+  @Test
+  public void testPercentCapturesGroup() throws IOException {
+    assertThat(remap("build/(%)\\.aab", "rel/$1.bundle"), contains("rel/app.bundle", "rel/lib.bundle"));
+  }
+
+  @Test
+  public void testGlobstarMatchesAnyDirectories() throws IOException {
+    assertThat(remap("build/**/outputs/(.*)\\.apk", "rel/$1/$2.apk"),
+        contains("rel/a/b/release.apk", "rel/a/debug.apk", "rel/app.apk"));
+  }
+
+  @Test
+  public void testConsecutiveGlobstars() throws IOException {
+    assertThat(remap("build/**/**/outputs/(.*)\\.apk", "rel/$1/$2.apk"),
+        contains("rel/a/b/release.apk", "rel/a/debug.apk", "rel/app.apk"));
+  }
+
+  @Test
+  public void testTrailingGlobstarMatchesAllFiles() throws IOException {
+    assertThat(remap("build/a/**", "rel/$1/"),
+        contains("rel/b/outputs/notes.txt", "rel/b/outputs/release.apk", "rel/outputs/debug.apk"));
+  }
+
+  @Test
+  public void testGroupsKeepTheirNumbers() throws IOException {
+    assertThat(remap("build/(a)/**/(.*)\\.apk", "rel/$1/$2/$3"),
+        contains("rel/a/b/outputs/release", "rel/a/outputs/debug"));
+  }
+
+  @Test
+  public void testParallelScanKeepsOrder() throws IOException {
+    List<FileMapper> serial = FileMapper.list("build/**/%.apk", workingDir, 1);
+    List<FileMapper> parallel = FileMapper.list("build/**/%.apk", workingDir, 4);
+    assertThat(paths(serial), contains("build/a/b/outputs/release.apk", "build/a/outputs/debug.apk",
+        "build/app.apk", "build/outputs/app.apk"));
+    assertThat(paths(parallel), is(paths(serial)));
+  }
+
+  @Test
+  public void testExcludedFilesAreSkipped() throws IOException {
+    Excludes excludes = Excludes.parse("*.txt, a/", folder.getRoot().toPath());
+    assertThat(paths(FileMapper.list("build/**", workingDir, 1, excludes)),
+        contains("build/app.aab", "build/app.apk", "build/lib.aab", "build/outputs/app.apk"));
+  }
+
+  @Test
+  public void testNoMatches() throws IOException {
+    assertThat(FileMapper.list("build/**/.*\\.jar", workingDir), is(empty()));
+    assertThat(FileMapper.list("build/**", new File(workingDir, "missing").getPath()), is(empty()));
+  }
+
+  private void create(String path) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), path.getBytes());
+  }
+
+  private List<String> remap(String pattern, String template) throws IOException {
+    Destination destination = Destination.compile(template, Collections.emptyMap());
+    return FileMapper.list(pattern, workingDir).stream().map(m -> m.remap(destination))
+        .collect(Collectors.toList());
+  }
+
+  private List<String> paths(List<FileMapper> mappers) {
+    return mappers.stream().map(m -> folder.getRoot().toPath().relativize(m.getFile().toPath()).toString())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
+
+public class ArtifactCacheTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testStoreAndRestore() throws IOException {
+    ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), 1000, false);
+    File file = create("app.apk", 100);
+    cache.store("a", file);
+
+    File workspace = folder.newFolder("workspace");
+    File restored = cache.restore("a", new File(workspace, "other.apk"));
+    assertEquals(new File(workspace, "app.apk"), restored);
+    assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(restored.toPath()));
+    assertNull(cache.restore("b", new File(workspace, "app.apk")));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), 1000, false);
+    File workspace = folder.newFolder("workspace");
+    cache.store("a", create("a.bin", 400));
+    cache.store("b", create("b.bin", 400));
+    sleep();
+    assertNotNull(cache.restore("a", new File(workspace, "a.bin"))); // b is the least recently used
+
+    cache.store("c", create("c.bin", 400));
+    assertNotNull(cache.restore("a", new File(workspace, "a.bin")));
+    assertNull(cache.restore("b", new File(workspace, "b.bin")));
+    assertNotNull(cache.restore("c", new File(workspace, "c.bin")));
+
+    cache.store("d", create("d.bin", 2000)); // Exceeds the capacity
+    assertNull(cache.restore("d", new File(workspace, "d.bin")));
+  }
+
+  @Test
+  public void testAgentsShareTheIndex() throws IOException {
+    File directory = folder.newFolder("cache");
+    ArtifactCache first = new ArtifactCache(directory, 1000, false);
+    ArtifactCache second = new ArtifactCache(directory, 1000, false);
+    File workspace = folder.newFolder("workspace");
+
+    first.store("a", create("a.bin", 100));
+    second.store("b", create("b.bin", 100));
+    first.flush();
+    second.flush(); // Merged with the entry of the first agent
+
+    ArtifactCache third = new ArtifactCache(directory, 1000, false);
+    assertNotNull(third.restore("a", new File(workspace, "a.bin")));
+    assertNotNull(third.restore("b", new File(workspace, "b.bin")));
+  }
+
+  @Test
+  public void testConcurrentStores() throws Exception {
+    File directory = folder.newFolder("cache");
+    ArtifactCache cache = new ArtifactCache(directory, 10000, false);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int index = 0; index < 40; index++) {
+        File file = create("file" + index + ".bin", 100);
+        String key = "key" + index;
+        futures.add(executor.submit(() -> {
+          cache.store(key, file);
+          return cache.restore(key, new File(folder.newFolder(), file.getName()));
+        }));
+      }
+      for (Future<?> future : futures) {
+        assertNotNull(future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    cache.flush();
+
+    ArtifactCache other = new ArtifactCache(directory, 10000, false);
+    File workspace = folder.newFolder("workspace");
+    for (int index = 0; index < 40; index++) {
+      assertNotNull(other.restore("key" + index, new File(workspace, "file" + index + ".bin")));
+    }
+  }
+
+  @Test
+  public void testRemovesOrphans() throws IOException {
+    File directory = folder.newFolder("cache");
+    ArtifactCache cache = new ArtifactCache(directory, 1000, false);
+    cache.store("a", create("a.bin", 600));
+    cache.flush();
+    File orphan = new File(new File(directory, "data"), "orphan");
+    Files.write(orphan.toPath(), new byte[10]);
+
+    cache.store("b", create("b.bin", 600)); // Evicts a
+    cache.flush();
+    assertEquals(1, new File(directory, "data").list().length);
+  }
+
+  @Test
+  public void testLinkedFilesStayWritable() throws IOException {
+    ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), 1000, true);
+    File file = create("app.apk", 100);
+    cache.store("a", file);
+    assertTrue(file.canWrite());
+
+    File restored = cache.restore("a", new File(folder.newFolder("workspace"), "app.apk"));
+    assertTrue(restored.canWrite());
+  }
+
+  @Test
+  public void testModifiedEntryIsDropped() throws IOException {
+    ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), 1000, true);
+    File file = create("app.apk", 100);
+    cache.store("a", file);
+
+    Files.write(file.toPath(), new byte[100], StandardOpenOption.WRITE); // In place, through the link
+    file.setLastModified(file.lastModified() + 5000);
+    assertNull(cache.restore("a", new File(folder.newFolder("workspace"), "app.apk")));
+  }
+
+  @Test
+  public void testReplacedFileKeepsEntry() throws IOException {
+    ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), 1000, true);
+    File file = create("app.apk", 100);
+    byte[] content = Files.readAllBytes(file.toPath());
+    cache.store("a", file);
+
+    File replacement = new File(file.getParentFile(), "app.apk.new");
+    Files.write(replacement.toPath(), new byte[50]);
+    Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    File restored = cache.restore("a", new File(folder.newFolder("workspace"), "app.apk"));
+    assertArrayEquals(content, Files.readAllBytes(restored.toPath()));
+  }
+
+  @Test
+  public void testCacheFollowsConfiguration() throws IOException {
+    String cache = folder.newFolder("cache").getAbsolutePath().replace("\\", "\\\\");
+    try (WebDAVClients clients = new WebDAVClients()) {
+      ArtifactCache first = clients.getCache(config(cache, "10", "false"));
+      assertSame(first, clients.getCache(config(cache, "10", "false")));
+      assertNotSame(first, clients.getCache(config(cache, "20", "false")));
+      ArtifactCache second = clients.getCache(config(cache, "20", "false"));
+      assertEquals(20L * 1024 * 1024, second.getCapacity());
+      assertNotSame(second, clients.getCache(config(cache, "20", "true")));
+    }
+  }
+
+  private File create(String name, int size) throws IOException {
+    File file = new File(folder.newFolder(), name);
+    byte[] content = new byte[size];
+    for (int index = 0; index < size; index++) {
+      content[index] = (byte) (index + name.hashCode());
+    }
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static WebDavStoreConfig config(String cache, String size, String link) {
+    return WebDavStoreConfig.fromJSON(String.format(
+        "{\"URL\":\"http://localhost\",\"LocalCache\":\"%s\",\"LocalCacheSize\":\"%s\",\"LocalCacheLink\":\"%s\"}",
+        cache, size, link));
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(10);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
+
+public class CollectionCacheTest {
+
+  @Test
+  public void testListedCollection() {
+    CollectionCache cache = new CollectionCache(null);
+    cache.add("rel/a", false);
+    assertTrue(cache.contains("rel/a"));
+    assertFalse(cache.isListed("rel/a"));
+    assertFalse(cache.contains("rel/b"));
+
+    cache.add("rel/a", true);
+    cache.add("rel/a", false);
+    assertTrue(cache.isListed("rel/a"));
+  }
+
+  @Test
+  public void testEntriesExpire() throws InterruptedException {
+    CollectionCache cache = new CollectionCache(50, TimeUnit.MILLISECONDS);
+    cache.add("rel/a", true);
+    assertTrue(cache.contains("rel/a"));
+    assertTrue(cache.isListed("rel/a"));
+
+    Thread.sleep(100);
+    assertFalse(cache.contains("rel/a"));
+    assertFalse(cache.isListed("rel/a"));
+  }
+
+  @Test
+  public void testPublishCacheSharesEntries() throws InterruptedException {
+    CollectionCache shared = new CollectionCache(50, TimeUnit.MILLISECONDS);
+    shared.add("rel/a", false);
+
+    CollectionCache publish = new CollectionCache(shared);
+    publish.add("rel/b", true);
+    assertTrue(publish.contains("rel/a"));
+    assertTrue(shared.isListed("rel/b"));
+
+    Thread.sleep(100);
+    assertFalse(shared.contains("rel/b"));
+    assertFalse(publish.contains("rel/a"));
+    assertTrue(publish.isListed("rel/b")); // Never expires within the publish
+  }
+
+  @Test
+  public void testSharedCacheFollowsTimeout() throws Exception {
+    try (WebDAVClients clients = new WebDAVClients()) {
+      assertNull(clients.getCollections(config("0")));
+
+      CollectionCache cache = clients.getCollections(config("60"));
+      cache.add("rel/a", true);
+      assertSame(cache, clients.getCollections(config("60")));
+
+      CollectionCache changed = clients.getCollections(config("5"));
+      assertNotSame(cache, changed);
+      assertFalse(changed.contains("rel/a"));
+    }
+  }
+
+  private static WebDavStoreConfig config(String timeout) {
+    return WebDavStoreConfig
+        .fromJSON(String.format("{\"URL\":\"http://localhost/dav\",\"CacheTimeout\":\"%s\"}", timeout));
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressionTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] content = text(100000);
+    byte[] compressed = compress(Compression.GZIP, content);
+    assertTrue(compressed.length < content.length);
+
+    try (InputStream stream = new BufferedInputStream(new ByteArrayInputStream(compressed))) {
+      assertTrue(Compression.isCompressed(stream));
+      assertArrayEquals(content, ByteStreams.toByteArray(Compression.decompress(stream)));
+    }
+    // The trailer is valid for any gzip reader
+    try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      assertArrayEquals(content, ByteStreams.toByteArray(stream));
+    }
+  }
+
+  @Test
+  public void testForeignGzipIsNotCompressed() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (OutputStream stream = new GZIPOutputStream(output)) {
+      stream.write(text(1000));
+    }
+    try (InputStream stream = new BufferedInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      assertFalse(Compression.isCompressed(stream));
+      assertEquals(0x1F, stream.read()); // Reset to the start
+    }
+    try (InputStream stream = new BufferedInputStream(new ByteArrayInputStream(new byte[4]))) {
+      assertFalse(Compression.isCompressed(stream));
+    }
+  }
+
+  @Test
+  public void testCloseLeavesStreamOpen() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream() {
+
+      @Override
+      public void close() {
+        throw new AssertionError("Closed");
+      }
+    };
+    DeflaterOutputStream gzip = Compression.FAST.compress(output);
+    gzip.write(text(100));
+    gzip.close(); // Released without finishing
+    assertTrue(output.size() > 0);
+  }
+
+  @Test
+  public void testIsCompressible() throws IOException {
+    assertTrue(Compression.GZIP.isCompressible(write("build.log", text(10000))));
+    assertFalse(Compression.NONE.isCompressible(write("plain.log", text(10000))));
+    assertFalse(Compression.GZIP.isCompressible(write("tiny.log", text(100))));
+    assertFalse(Compression.GZIP.isCompressible(write("image.png", text(10000))));
+
+    byte[] zip = text(10000);
+    System.arraycopy(new byte[] { 0x50, 0x4B, 0x03, 0x04 }, 0, zip, 0, 4);
+    assertFalse(Compression.GZIP.isCompressible(write("archive.bin", zip)));
+
+    byte[] random = new byte[10000];
+    new Random(1).nextBytes(random);
+    assertFalse(Compression.GZIP.isCompressible(write("random.bin", random)));
+  }
+
+  @Test
+  public void testOf() {
+    assertSame(Compression.NONE, Compression.of(null));
+    assertSame(Compression.NONE, Compression.of(" "));
+    assertSame(Compression.FAST, Compression.of(" fast "));
+  }
+
+  private File write(String name, byte[] content) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static byte[] compress(Compression compression, byte[] content) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (DeflaterOutputStream gzip = compression.compress(output)) {
+      gzip.write(content);
+      gzip.finish();
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] text(int size) {
+    StringBuilder builder = new StringBuilder();
+    for (int line = 0; builder.length() < size; line++) {
+      builder.append("INFO line ").append(line).append(" of the build log\n");
+    }
+    return builder.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+  }
+}
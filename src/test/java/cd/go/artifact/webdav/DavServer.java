@@ -0,0 +1,360 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@link DavServer} is a minimal WebDAV server on a local directory for the tests. It supports
+ * the methods the plugin sends, conditional requests and single byte ranges, and counts the
+ * requests by method.
+ */
+class DavServer implements Closeable {
+
+  private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+
+  private final Path                       root;
+  private final HttpServer                 server;
+  private final ExecutorService            executor  = Executors.newCachedThreadPool();
+  private final Map<String, AtomicInteger> requests  = new ConcurrentHashMap<>();
+  private final List<String>               ranges    = new ArrayList<>();
+  private volatile boolean                 rangeable = true;
+
+  /**
+   * Constructs an instance of {@link DavServer}, that serves the directory.
+   *
+   * @param root
+   */
+  DavServer(Path root) throws IOException {
+    this.root = root;
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  /**
+   * Get the URL of the server.
+   */
+  final String getUrl() {
+    return String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+  }
+
+  /**
+   * Get the local file of the remote path.
+   *
+   * @param path
+   */
+  final Path resolve(String path) {
+    return root.resolve(path.replaceAll("^/+|/+$", ""));
+  }
+
+  /**
+   * Get the number of requests with the method.
+   *
+   * @param method
+   */
+  final int getRequests(String method) {
+    AtomicInteger count = requests.get(method);
+    return (count == null) ? 0 : count.get();
+  }
+
+  /**
+   * Get the Range headers of the GET requests.
+   */
+  final synchronized List<String> getRanges() {
+    return new ArrayList<>(ranges);
+  }
+
+  /**
+   * Resets the counted requests.
+   */
+  final synchronized void reset() {
+    requests.clear();
+    ranges.clear();
+  }
+
+  /**
+   * Set if the server answers a Range header with partial content.
+   *
+   * @param rangeable
+   */
+  final void setRangeable(boolean rangeable) {
+    this.rangeable = rangeable;
+  }
+
+  @Override
+  public final void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Handles a single request.
+   *
+   * @param exchange
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      InputStream body = exchange.getRequestBody();
+      String method = exchange.getRequestMethod();
+      requests.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+      Path file = resolve(exchange.getRequestURI().getPath());
+      switch (method) {
+        case "HEAD":
+        case "GET":
+          get(exchange, file);
+          break;
+        case "PUT":
+          byte[] content = ByteStreams.toByteArray(body);
+          if (!Files.isDirectory(file.getParent())) {
+            send(exchange, 409);
+          } else {
+            boolean existed = Files.exists(file);
+            Files.write(file, content);
+            send(exchange, existed ? 204 : 201);
+          }
+          break;
+        case "MKCOL":
+          if (Files.exists(file)) {
+            send(exchange, 405);
+          } else if (!Files.isDirectory(file.getParent())) {
+            send(exchange, 409);
+          } else {
+            Files.createDirectory(file);
+            send(exchange, 201);
+          }
+          break;
+        case "DELETE":
+          if (!Files.exists(file)) {
+            send(exchange, 404);
+          } else {
+            MoreFiles.deleteRecursively(file, RecursiveDeleteOption.ALLOW_INSECURE);
+            send(exchange, 204);
+          }
+          break;
+        case "MOVE":
+          move(exchange, file);
+          break;
+        case "PROPFIND":
+          propfind(exchange, file);
+          break;
+        default:
+          send(exchange, 405);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Answers a GET or HEAD request, with partial content for a Range, that matches the If-Range. A
+   * collection is answered without content.
+   *
+   * @param exchange
+   * @param file
+   */
+  private void get(HttpExchange exchange, Path file) throws IOException {
+    if (Files.isDirectory(file)) {
+      send(exchange, 200);
+      return;
+    } else if (!Files.isRegularFile(file)) {
+      send(exchange, 404);
+      return;
+    }
+
+    String etag = DavServer.getETag(file);
+    String modified = HTTP_DATE.format(Files.getLastModifiedTime(file).toInstant());
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+    exchange.getResponseHeaders().set("ETag", etag);
+    exchange.getResponseHeaders().set("Last-Modified", modified);
+    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+    if ("GET".equals(exchange.getRequestMethod()) && range != null) {
+      synchronized (this) {
+        ranges.add(range);
+      }
+    }
+
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      send(exchange, 304);
+      return;
+    }
+
+    byte[] content = Files.readAllBytes(file);
+    int start = 0;
+    int end = content.length - 1;
+    int status = 200;
+    if (rangeable && range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(modified))) {
+      String[] values = range.substring(range.indexOf('=') + 1).split("-", 2);
+      start = Integer.parseInt(values[0]);
+      end = values[1].isEmpty() ? end : Math.min(end, Integer.parseInt(values[1]));
+      if (start >= content.length) {
+        exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+        send(exchange, 416);
+        return;
+      }
+      status = 206;
+      exchange.getResponseHeaders().set("Content-Range",
+          String.format("bytes %d-%d/%d", start, end, content.length));
+    }
+
+    int length = end - start + 1;
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Content-Length", Integer.toString(length));
+      send(exchange, status);
+      return;
+    }
+    exchange.sendResponseHeaders(status, (length == 0) ? -1 : length);
+    try (OutputStream stream = exchange.getResponseBody()) {
+      stream.write(content, start, length);
+    }
+  }
+
+  /**
+   * Moves the resource to the Destination, an existing destination is only replaced if the
+   * Overwrite header allows it.
+   *
+   * @param exchange
+   * @param file
+   */
+  private void move(HttpExchange exchange, Path file) throws IOException {
+    Path target = resolve(URI.create(exchange.getRequestHeaders().getFirst("Destination")).getPath());
+    boolean existed = Files.exists(target);
+    if (!Files.exists(file)) {
+      send(exchange, 404);
+    } else if (existed && "F".equals(exchange.getRequestHeaders().getFirst("Overwrite"))) {
+      send(exchange, 412);
+    } else if (!Files.isDirectory(target.getParent())) {
+      send(exchange, 409);
+    } else {
+      if (existed) {
+        MoreFiles.deleteRecursively(target, RecursiveDeleteOption.ALLOW_INSECURE);
+      }
+      Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+      send(exchange, existed ? 204 : 201);
+    }
+  }
+
+  /**
+   * Lists the resource and, with a depth of 1, its children.
+   *
+   * @param exchange
+   * @param file
+   */
+  private void propfind(HttpExchange exchange, Path file) throws IOException {
+    if (!Files.exists(file)) {
+      send(exchange, 404);
+      return;
+    }
+
+    List<Path> files = new ArrayList<>();
+    files.add(file);
+    if (Files.isDirectory(file) && "1".equals(exchange.getRequestHeaders().getFirst("Depth"))) {
+      try (Stream<Path> children = Files.list(file)) {
+        files.addAll(children.sorted().collect(Collectors.toList()));
+      }
+    }
+
+    StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\">");
+    for (Path child : files) {
+      boolean directory = Files.isDirectory(child);
+      Instant modified = Files.getLastModifiedTime(child).toInstant();
+      builder.append("<D:response><D:href>").append(getHref(child, directory)).append("</D:href>");
+      builder.append("<D:propstat><D:prop><D:resourcetype>").append(directory ? "<D:collection/>" : "");
+      builder.append("</D:resourcetype><D:getlastmodified>").append(HTTP_DATE.format(modified));
+      builder.append("</D:getlastmodified>");
+      if (!directory) {
+        builder.append("<D:getcontentlength>").append(Files.size(child)).append("</D:getcontentlength>");
+        builder.append("<D:getetag>").append(DavServer.getETag(child).replace("\"", "&quot;")).append("</D:getetag>");
+      }
+      builder.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>");
+    }
+    builder.append("</D:multistatus>");
+
+    byte[] content = builder.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+    exchange.sendResponseHeaders(207, content.length);
+    try (OutputStream stream = exchange.getResponseBody()) {
+      stream.write(content);
+    }
+  }
+
+  /**
+   * Get the encoded path of the local file on the server.
+   *
+   * @param file
+   * @param directory
+   */
+  private String getHref(Path file, boolean directory) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    for (Path name : root.relativize(file)) {
+      if (!name.toString().isEmpty()) {
+        builder.append('/').append(URLEncoder.encode(name.toString(), "UTF-8").replace("+", "%20"));
+      }
+    }
+    return (builder.length() == 0 || directory) ? builder.append('/').toString() : builder.toString();
+  }
+
+  /**
+   * Get the strong ETag of the file, by its length and modification time.
+   *
+   * @param file
+   */
+  private static String getETag(Path file) throws IOException {
+    return String.format("\"%x-%x\"", Files.size(file), Files.getLastModifiedTime(file).toMillis());
+  }
+
+  /**
+   * Sends a response without content. The connection is closed, as the server doesn't keep it
+   * alive reliably after a response without content.
+   *
+   * @param exchange
+   * @param status
+   */
+  private static void send(HttpExchange exchange, int status) throws IOException {
+    exchange.getResponseHeaders().set("Connection", "close");
+    exchange.sendResponseHeaders(status, -1);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class FetchIndexTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRecordAndLoad() throws IOException {
+    File directory = folder.newFolder("target");
+    File file = create(directory, "docs/report.log", 100);
+    FetchIndex index = FetchIndex.load(directory);
+    index.record(file, file, "\"abc\"", "Mon, 01 Jan 2018 00:00:00 GMT");
+    index.save();
+
+    FetchIndex loaded = FetchIndex.load(directory);
+    assertEquals("\"abc\"", loaded.getETag(file));
+    assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", loaded.getLastModified(file));
+    assertEquals(file, loaded.getTarget(file));
+    assertFalse(new File(directory, ".webdav-fetch.tmp").exists());
+  }
+
+  @Test
+  public void testDecompressedTarget() throws IOException {
+    File directory = folder.newFolder("target");
+    File target = create(directory, "report.log", 100);
+    File file = new File(directory, "report.log.gz");
+    FetchIndex index = FetchIndex.load(directory);
+    index.record(file, target, "\"abc\"", null);
+
+    assertEquals(target, index.getTarget(file));
+    assertEquals("\"abc\"", index.getETag(file));
+    assertNull(index.getLastModified(file));
+    assertNull(index.getETag(target));
+  }
+
+  @Test
+  public void testModifiedFileIsInvalid() throws IOException {
+    File directory = folder.newFolder("target");
+    File resized = create(directory, "a.bin", 100);
+    File touched = create(directory, "b.bin", 100);
+    File deleted = create(directory, "c.bin", 100);
+    FetchIndex index = FetchIndex.load(directory);
+    index.record(resized, resized, "\"a\"", null);
+    index.record(touched, touched, "\"b\"", null);
+    index.record(deleted, deleted, "\"c\"", null);
+
+    Files.write(resized.toPath(), new byte[50]);
+    touched.setLastModified(touched.lastModified() + 5000);
+    deleted.delete();
+    assertNull(index.getETag(resized));
+    assertNull(index.getETag(touched));
+    assertNull(index.getTarget(deleted));
+  }
+
+  @Test
+  public void testRecordWithoutValidatorsRemovesEntry() throws IOException {
+    File directory = folder.newFolder("target");
+    File file = create(directory, "a.bin", 100);
+    FetchIndex index = FetchIndex.load(directory);
+    index.record(file, file, "\"a\"", null);
+    index.record(file, file, null, null);
+    assertNull(index.getTarget(file));
+
+    index.save(); // An empty index isn't written
+    assertFalse(new File(directory, ".webdav-fetch").exists());
+  }
+
+  @Test
+  public void testDamagedIndexIsEmpty() throws IOException {
+    File directory = folder.newFolder("target");
+    File file = create(directory, "a.bin", 100);
+    Files.write(new File(directory, ".webdav-fetch").toPath(), "a.bin=\\u00".getBytes("ISO-8859-1"));
+    assertNull(FetchIndex.load(directory).getETag(file));
+
+    Files.write(new File(directory, ".webdav-fetch").toPath(), "a.bin=a.bin\t100".getBytes("ISO-8859-1"));
+    assertNull(FetchIndex.load(directory).getETag(file));
+  }
+
+  private static File create(File directory, String name, int size) throws IOException {
+    File file = new File(directory, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), new byte[size]);
+    file.setLastModified(System.currentTimeMillis() - 60000);
+    return file;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LocationTest {
+
+  @Test
+  public void testParse() {
+    List<Location> locations = Location.parse("f 12 rel/app.apk\n\nd 0 rel/docs dir\nb -1 rel/a.tar.gz\n");
+    assertEquals(3, locations.size());
+    assertEquals(Location.Type.FILE, locations.get(0).getType());
+    assertEquals(12, locations.get(0).getSize());
+    assertEquals("rel/app.apk", locations.get(0).getPath());
+    assertEquals(Location.Type.DIRECTORY, locations.get(1).getType());
+    assertEquals("rel/docs dir", locations.get(1).getPath());
+    assertEquals("docs dir", locations.get(1).getName());
+    assertEquals(Location.Type.BUNDLE, locations.get(2).getType());
+    assertEquals(-1, locations.get(2).getSize());
+  }
+
+  @Test
+  public void testFormatAndParse() {
+    List<Location> locations = Arrays.asList(new Location(Location.Type.FILE, "rel/app.apk", 12),
+        new Location(Location.Type.BUNDLE, "rel/a.tar.gz", -1));
+    String text = Location.format(locations);
+    assertEquals("f 12 rel/app.apk\nb -1 rel/a.tar.gz", text);
+    assertEquals(text, Location.format(Location.parse(text)));
+  }
+
+  @Test
+  public void testBase() {
+    assertEquals("rel/", Location.getBase(Location.parse("f 1 rel/x/app.jar\nf 1 rel/y/app.jar")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAbsolutePath() {
+    Location.parse("f 12 /etc/passwd");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParentPath() {
+    Location.parse("d 0 rel/..");
+  }
+
+  @Test
+  public void testTraversalPaths() {
+    for (String path : Arrays.asList("..", "../x", "a/../../x", "a/..", "a//b", "a/", "./../x")) {
+      try {
+        Location.parse("f 12 " + path);
+        fail("Accepted " + path);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+    assertEquals("a/..b/c..", Location.parse("f 12 a/..b/c..").get(0).getPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingPath() {
+    Location.parse("f 12");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidType() {
+    Location.parse("x 12 rel/app.apk");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    Location.parse("f big rel/app.apk");
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cd.go.artifact.Console;
+
+/**
+ * The {@link RecordingConsole} keeps the messages written to the {@link Console} for the tests.
+ */
+class RecordingConsole implements Console {
+
+  private final List<String> messages = new CopyOnWriteArrayList<>();
+
+  /**
+   * Get the messages written so far.
+   */
+  final List<String> getMessages() {
+    return messages;
+  }
+
+  /**
+   * Returns <code>true</code> if a message contains the text.
+   *
+   * @param text
+   */
+  final boolean contains(String text) {
+    return messages.stream().anyMatch(m -> m.contains(text));
+  }
+
+  @Override
+  public void info(String message, Object... arguments) {
+    messages.add(String.format(message, arguments));
+  }
+
+  @Override
+  public void error(String message, Object... arguments) {
+    messages.add(String.format(message, arguments));
+  }
+
+  @Override
+  public void logStackTrace(Exception exception, String message, Object... arguments) {
+    messages.add(String.format(message, arguments));
+  }
+}
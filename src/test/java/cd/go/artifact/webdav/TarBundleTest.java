@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import cd.go.artifact.util.Excludes;
+
+public class TarBundleTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path source;
+  private Path target;
+
+  @Before
+  public void setUp() throws IOException {
+    source = folder.newFolder("source").toPath();
+    target = folder.newFolder("target").toPath();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    String longName = Strings.repeat("nested/", 20) + "file.txt";
+    create("app.apk", 100_000);
+    create("docs/readme.txt", 10);
+    create("docs/empty.txt", 0);
+    create(longName, 1000);
+    Files.createDirectories(source.resolve("empty"));
+    source.resolve("app.apk").toFile().setExecutable(true);
+
+    TransferSummary written = new TransferSummary();
+    TransferSummary read = new TransferSummary();
+    extract(write(Excludes.NONE, written), read);
+
+    Path root = target.resolve("bundle");
+    assertContent("app.apk", root);
+    assertContent("docs/readme.txt", root);
+    assertContent("docs/empty.txt", root);
+    assertContent(longName, root);
+    assertTrue(Files.isDirectory(root.resolve("empty")));
+    assertTrue(Files.isExecutable(root.resolve("app.apk")));
+    assertEquals(4, written.getUploadedFiles());
+    assertEquals(101_010, written.getUploadedBytes());
+    assertEquals(source.resolve("app.apk").toFile().lastModified() / 1000,
+        root.resolve("app.apk").toFile().lastModified() / 1000);
+  }
+
+  @Test
+  public void testExcludes() throws IOException {
+    create("app.apk", 10);
+    create("build.log", 10);
+    create("tmp/cache.bin", 10);
+
+    TransferSummary written = new TransferSummary();
+    extract(write(Excludes.parse("*.log, tmp/", source), written), new TransferSummary());
+
+    Path root = target.resolve("bundle");
+    assertTrue(Files.exists(root.resolve("app.apk")));
+    assertFalse(Files.exists(root.resolve("build.log")));
+    assertFalse(Files.exists(root.resolve("tmp")));
+    assertEquals(1, written.getUploadedFiles());
+  }
+
+  @Test
+  public void testLinks() throws IOException {
+    create("lib/app.jar", 10);
+    Files.createSymbolicLink(source.resolve("alias.jar"), Paths.get("lib/app.jar"));
+    Files.createSymbolicLink(source.resolve("lib/up"), Paths.get(".."));
+    Files.createSymbolicLink(source.resolve("passwd"), Paths.get("/etc/passwd"));
+    Files.createSymbolicLink(source.resolve("outside"), Paths.get("../../outside"));
+
+    extract(write(Excludes.NONE, new TransferSummary()), new TransferSummary());
+
+    Path root = target.resolve("bundle");
+    assertTrue(Files.isSymbolicLink(root.resolve("alias.jar")));
+    assertEquals(Paths.get("lib/app.jar"), Files.readSymbolicLink(root.resolve("alias.jar")));
+    assertContent("lib/app.jar", root);
+    assertEquals(Paths.get(".."), Files.readSymbolicLink(root.resolve("lib/up")));
+    assertFalse(Files.exists(root.resolve("passwd"), LinkOption.NOFOLLOW_LINKS));
+    assertFalse(Files.exists(root.resolve("outside"), LinkOption.NOFOLLOW_LINKS));
+  }
+
+  @Test
+  public void testCompressedArchiveCountsLastWrite() throws IOException {
+    create("app.apk", 1000);
+    create("docs/readme.txt", 10);
+
+    TarBundle.Archive archive =
+        new TarBundle.Archive(source.toFile(), "bundle", Compression.GZIP, Excludes.NONE, null);
+    archive.writeTo(new ByteArrayOutputStream());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    archive.writeTo(bytes);
+    assertEquals(2, archive.getWritten().getUploadedFiles());
+    assertEquals(1010, archive.getWritten().getUploadedBytes());
+
+    TarBundle.extract(Compression.decompress(new ByteArrayInputStream(bytes.toByteArray())), target.toFile(), false,
+        new TransferSummary());
+    assertContent("app.apk", target.resolve("bundle"));
+    assertContent("docs/readme.txt", target.resolve("bundle"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedArchive() throws IOException {
+    create("app.apk", 100_000);
+    byte[] archive = write(Excludes.NONE, new TransferSummary());
+    TarBundle.extract(new ByteArrayInputStream(archive, 0, 50_000), target.toFile(), false, new TransferSummary());
+  }
+
+  private void create(String name, int size) throws IOException {
+    byte[] content = new byte[size];
+    for (int index = 0; index < size; index++) {
+      content[index] = (byte) (index * 31 + name.length());
+    }
+    Path file = source.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content);
+  }
+
+  private byte[] write(Excludes excludes, TransferSummary summary) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    TarBundle.write(source.toFile(), "bundle", excludes, stream, summary);
+    return stream.toByteArray();
+  }
+
+  private void extract(byte[] archive, TransferSummary summary) throws IOException {
+    TarBundle.extract(new ByteArrayInputStream(archive), target.toFile(), false, summary);
+  }
+
+  private void assertContent(String name, Path root) throws IOException {
+    assertArrayEquals(name, Files.readAllBytes(source.resolve(name)), Files.readAllBytes(root.resolve(name)));
+  }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2018 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cd.go.artifact.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import cd.go.artifact.webdav.model.WebDavStoreConfig;
+
+public class WebDAVTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private DavServer     server;
+  private WebDAVClients clients;
+  private File          source;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new DavServer(folder.newFolder("remote").toPath());
+    clients = new WebDAVClients();
+    source = folder.newFolder("source");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    clients.close();
+    server.close();
+  }
+
+  @Test
+  public void testIncrementalSkipsUnchangedFiles() throws IOException {
+    create("a.txt", 100);
+    create("docs/b.txt", 200);
+    publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\"");
+
+    server.reset();
+    TransferSummary summary = publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\"");
+    assertEquals(0, server.getRequests("PUT"));
+    assertEquals(0, server.getRequests("GET")); // Decided by the listing
+    assertEquals(0, summary.getUploadedFiles());
+    assertEquals(300, summary.getSkippedBytes());
+  }
+
+  @Test
+  public void testIncrementalComparesModifiedFilesByDigest() throws IOException {
+    create("a.txt", 100);
+    create("b.txt", 100);
+    create("c.txt", 100);
+    publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\"");
+
+    long modified = System.currentTimeMillis() + 5000;
+    new File(source, "a.txt").setLastModified(modified); // Same content
+    Files.write(new File(source, "b.txt").toPath(), new byte[100]); // Same length
+    new File(source, "b.txt").setLastModified(modified);
+    Files.write(new File(source, "c.txt").toPath(), new byte[50]);
+
+    server.reset();
+    TransferSummary summary = publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\"");
+    assertEquals(2, summary.getUploadedFiles());
+    assertEquals(100, summary.getSkippedBytes());
+    assertEquals(2, server.getRequests("GET")); // The sidecars of a.txt and b.txt
+    assertTrue(Arrays.equals(new byte[100], Files.readAllBytes(server.resolve("rel/b.txt"))));
+  }
+
+  @Test
+  public void testIncrementalComparesCompressedFilesByDigest() throws IOException {
+    Files.write(new File(source, "report.log").toPath(), new byte[10000]);
+    publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\",\"Compression\":\"gzip\"");
+    assertTrue(Files.exists(server.resolve("rel/report.log.gz")));
+
+    TransferSummary summary = publish("\"Checksum\":\"sha256\",\"Incremental\":\"true\",\"Compression\":\"gzip\"");
+    assertEquals(0, summary.getUploadedFiles());
+    assertEquals(10000, summary.getSkippedBytes());
+  }
+
+  @Test
+  public void testIncrementalComparesChunkedFilesByManifest() throws IOException {
+    create("big.bin", 3 * 1024 * 1024 / 2);
+    String options = "\"Checksum\":\"sha256\",\"Incremental\":\"true\",\"ChunkSize\":\"1\",\"ChunkThreshold\":\"1\"";
+    publish(options);
+    assertTrue(Files.isDirectory(server.resolve("rel/big.bin.chunks")));
+
+    server.reset();
+    TransferSummary summary = publish(options);
+    assertEquals(0, server.getRequests("PUT"));
+    assertEquals(3 * 1024 * 1024 / 2, summary.getSkippedBytes());
+
+    new File(source, "big.bin").setLastModified(System.currentTimeMillis() + 5000);
+    summary = publish(options);
+    assertEquals(0, summary.getSkippedBytes());
+  }
+
+  @Test
+  public void testIncrementalRequiresChecksum() {
+    assertTrue(config("\"Incremental\":\"true\"").validate().hasKey("Incremental"));
+    assertTrue(config("\"Incremental\":\"true\",\"Checksum\":\"none\"").validate().hasKey("Incremental"));
+    assertFalse(config("\"Incremental\":\"true\",\"Checksum\":\"crc32c\"").validate().hasErrors());
+    assertFalse(config("\"Incremental\":\"false\"").validate().hasErrors());
+  }
+
+  @Test
+  public void testCompressionSkipsFileShadowedByCompressedName() throws IOException {
+    Files.write(new File(source, "report.log").toPath(), new byte[10000]);
+    create("report.log.gz", 100);
+    publish("\"Checksum\":\"sha256\",\"Compression\":\"gzip\"");
+
+    assertTrue(Arrays.equals(new byte[10000], Files.readAllBytes(server.resolve("rel/report.log"))));
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "report.log.gz").toPath()),
+        Files.readAllBytes(server.resolve("rel/report.log.gz"))));
+    assertTrue(Files.exists(server.resolve("rel/report.log.gz.sha256")));
+  }
+
+  @Test
+  public void testVariantsListEachDirectoryOnce() throws IOException {
+    for (int index = 0; index < 20; index++) {
+      Files.write(new File(source, "file" + index + ".log").toPath(), new byte[10000]);
+    }
+    publish("\"Compression\":\"gzip\",\"Threads\":\"8\"");
+
+    server.reset();
+    publish("\"Compression\":\"gzip\",\"Threads\":\"8\"");
+    assertEquals(1, server.getRequests("PROPFIND"));
+
+    server.reset();
+    publish("\"Threads\":\"8\"");
+    assertEquals(0, server.getRequests("PROPFIND"));
+  }
+
+  @Test
+  public void testFetchIndexSkipsUnchangedFiles() throws IOException {
+    create("a.txt", 100);
+    create("docs/b.txt", 200);
+    publish("\"Checksum\":\"sha256\"");
+
+    File target = folder.newFolder("target");
+    assertEquals(2, fetch("\"Checksum\":\"sha256\"", target).getFetchedFiles());
+    assertTrue(new File(target, ".webdav-fetch").exists());
+
+    server.reset();
+    TransferSummary summary = fetch("\"Checksum\":\"sha256\"", target);
+    assertEquals(0, server.getRequests("GET"));
+    assertEquals(2, summary.getKeptFiles());
+
+    Files.write(new File(target, "a.txt").toPath(), new byte[10]); // Modified locally
+    summary = fetch("\"Checksum\":\"sha256\"", target);
+    assertEquals(1, summary.getKeptFiles());
+    assertEquals(100, new File(target, "a.txt").length());
+  }
+
+  @Test
+  public void testChunkedFileVerifiesItsParts() throws IOException {
+    create("big.bin", 3 * 1024 * 1024 / 2);
+    String options = "\"Checksum\":\"sha256\",\"ChunkSize\":\"1\",\"ChunkThreshold\":\"1\"";
+    publish(options);
+    assertTrue(Files.exists(server.resolve("rel/big.bin.chunks/parts.sha256")));
+    assertFalse(Files.exists(server.resolve("rel/big.bin.sha256")));
+
+    File target = folder.newFolder("target");
+    pull(options, "rel/big.bin", new File(target, "big.bin"));
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "big.bin").toPath()),
+        Files.readAllBytes(new File(target, "big.bin").toPath())));
+
+    Files.write(server.resolve("rel/big.bin.chunks/00001"), new byte[1024 * 1024 / 2]); // Same length
+    try {
+      pull(options, "rel/big.bin", new File(target, "other.bin"));
+      fail("Corrupt part accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch"));
+    }
+  }
+
+  @Test
+  public void testChunkedTransferResumesMissingParts() throws IOException {
+    create("big.bin", 7 * 1024 * 1024 / 2);
+    String options = "\"Checksum\":\"sha256\",\"ChunkSize\":\"1\",\"ChunkThreshold\":\"1\"";
+    publish(options);
+
+    // An interrupted upload, that stored all parts but the third one
+    Files.move(server.resolve("rel/big.bin.chunks"), server.resolve("rel/big.bin.upload"));
+    Files.delete(server.resolve("rel/big.bin.upload/00002"));
+
+    server.reset();
+    TransferSummary summary = publish(options);
+    assertEquals(2, server.getRequests("PUT")); // The missing part and the digests of the parts
+    assertEquals(1024 * 1024, summary.getUploadedBytes());
+    assertEquals(5 * 1024 * 1024 / 2, summary.getSkippedBytes());
+    assertFalse(Files.exists(server.resolve("rel/big.bin.upload")));
+
+    File target = folder.newFolder("target");
+    pull(options, "rel/big.bin", new File(target, "big.bin"));
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "big.bin").toPath()),
+        Files.readAllBytes(new File(target, "big.bin").toPath())));
+  }
+
+  @Test
+  public void testChunkedTransferDiscardsUploadOfOtherFile() throws IOException {
+    create("big.bin", 7 * 1024 * 1024 / 2);
+    String options = "\"ChunkSize\":\"1\",\"ChunkThreshold\":\"1\"";
+    publish(options);
+    Files.move(server.resolve("rel/big.bin.chunks"), server.resolve("rel/big.bin.upload"));
+    Files.write(server.resolve("rel/big.bin.upload/00009"), new byte[10]);
+
+    create("big.bin", 5 * 1024 * 1024 / 2); // The manifest differs
+    server.reset();
+    TransferSummary summary = publish(options);
+    assertEquals(4, server.getRequests("PUT")); // The manifest and all parts
+    assertEquals(0, summary.getSkippedBytes());
+    assertFalse(Files.exists(server.resolve("rel/big.bin.chunks/00003")));
+    assertFalse(Files.exists(server.resolve("rel/big.bin.chunks/00009")));
+
+    File target = folder.newFolder("target");
+    pull(options, "rel/big.bin", new File(target, "big.bin"));
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "big.bin").toPath()),
+        Files.readAllBytes(new File(target, "big.bin").toPath())));
+  }
+
+  @Test
+  public void testRangedDownloadFetchesRangesInParallel() throws IOException {
+    create("big.bin", 4 * 1024 * 1024);
+    publish("\"Checksum\":\"sha256\"");
+
+    File target = folder.newFolder("target");
+    server.reset();
+    pull("\"Checksum\":\"sha256\",\"RangeThreshold\":\"1\",\"Threads\":\"4\"", "rel/big.bin",
+        new File(target, "big.bin"));
+    assertEquals(Arrays.asList("bytes=0-1048575", "bytes=1048576-2097151", "bytes=2097152-3145727",
+        "bytes=3145728-4194303"), sorted(server.getRanges()));
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "big.bin").toPath()),
+        Files.readAllBytes(new File(target, "big.bin").toPath())));
+    assertEquals(Collections.singletonList("big.bin"), Arrays.asList(target.list()));
+  }
+
+  @Test
+  public void testRangedDownloadResumesMissingRanges() throws IOException {
+    create("big.bin", 4 * 1024 * 1024);
+    publish("\"Checksum\":\"sha256\"");
+
+    // A former download, that stored the first and the third range
+    File file = new File(folder.newFolder("target"), "big.bin");
+    byte[] content = Files.readAllBytes(new File(source, "big.bin").toPath());
+    byte[] partial = new byte[content.length];
+    System.arraycopy(content, 0, partial, 0, 1024 * 1024);
+    System.arraycopy(content, 2 * 1024 * 1024, partial, 2 * 1024 * 1024, 1024 * 1024);
+    Files.write(ResumableDownload.getPart(file).toPath(), partial);
+    Properties state = new Properties();
+    state.setProperty(ResumableDownload.ETAG, getETag("rel/big.bin"));
+    state.setProperty("length", Integer.toString(content.length));
+    state.setProperty("rangeSize", Integer.toString(1024 * 1024));
+    state.setProperty(ResumableDownload.RANGES, "0,2");
+    ResumableDownload.storeState(file, state);
+
+    server.reset();
+    pull("\"Checksum\":\"sha256\",\"RangeThreshold\":\"1\",\"Threads\":\"4\"", "rel/big.bin", file);
+    assertEquals(Arrays.asList("bytes=1048576-2097151", "bytes=3145728-4194303"), sorted(server.getRanges()));
+    assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+  }
+
+  @Test
+  public void testRangedDownloadFailsWithoutPartialContent() throws IOException {
+    create("big.bin", 2 * 1024 * 1024);
+    publish("\"Checksum\":\"sha256\"");
+
+    server.setRangeable(false); // Like a file, that changed after the HEAD request
+    File file = new File(folder.newFolder("target"), "big.bin");
+    try {
+      pull("\"RangeThreshold\":\"1\",\"Threads\":\"2\"", "rel/big.bin", file);
+      fail("Full content accepted for a range");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("not served"));
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testResumableDownloadContinuesPartialFile() throws IOException {
+    create("a.bin", 100000);
+    publish("\"Checksum\":\"sha256\"");
+
+    File file = new File(folder.newFolder("target"), "a.bin");
+    byte[] content = Files.readAllBytes(new File(source, "a.bin").toPath());
+    Files.write(ResumableDownload.getPart(file).toPath(), Arrays.copyOf(content, 40000));
+    Properties state = new Properties();
+    state.setProperty(ResumableDownload.ETAG, getETag("rel/a.bin"));
+    ResumableDownload.storeState(file, state);
+
+    server.reset();
+    pull("\"Checksum\":\"sha256\"", "rel/a.bin", file);
+    assertEquals(Collections.singletonList("bytes=40000-"), server.getRanges());
+    assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+    assertEquals(Collections.singletonList("a.bin"), Arrays.asList(file.getParentFile().list()));
+  }
+
+  @Test
+  public void testResumableDownloadRestartsChangedFile() throws IOException {
+    create("a.bin", 100000);
+    publish("\"Checksum\":\"sha256\"");
+
+    // The partial file of a former version, the If-Range doesn't match
+    File file = new File(folder.newFolder("target"), "a.bin");
+    Files.write(ResumableDownload.getPart(file).toPath(), new byte[40000]);
+    Properties state = new Properties();
+    state.setProperty(ResumableDownload.ETAG, "\"1-1\"");
+    ResumableDownload.storeState(file, state);
+
+    server.reset();
+    pull("\"Checksum\":\"sha256\"", "rel/a.bin", file);
+    assertEquals(Collections.singletonList("bytes=40000-"), server.getRanges()); // Answered with all content
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "a.bin").toPath()),
+        Files.readAllBytes(file.toPath())));
+  }
+
+  @Test
+  public void testResumableDownloadIgnoresRangedState() throws IOException {
+    create("a.bin", 100000);
+    publish("\"Checksum\":\"sha256\"");
+
+    // The partial file of a ranged download has gaps, it can't be continued at its end
+    File file = new File(folder.newFolder("target"), "a.bin");
+    Files.write(ResumableDownload.getPart(file).toPath(), new byte[40000]);
+    Properties state = new Properties();
+    state.setProperty(ResumableDownload.ETAG, getETag("rel/a.bin"));
+    state.setProperty(ResumableDownload.RANGES, "1");
+    ResumableDownload.storeState(file, state);
+
+    server.reset();
+    pull("\"Checksum\":\"sha256\"", "rel/a.bin", file);
+    assertTrue(server.getRanges().isEmpty());
+    assertTrue(Arrays.equals(Files.readAllBytes(new File(source, "a.bin").toPath()),
+        Files.readAllBytes(file.toPath())));
+  }
+
+  @Test
+  public void testKnownDigestReplacesSidecar() throws IOException {
+    create("a.txt", 100);
+    Map<String, String> digests;
+    try (WebDAV webdav = new WebDAV(config("\"Checksum\":\"sha256\""), new RecordingConsole(), clients)) {
+      webdav.push("a.txt", new File(source, "a.txt"));
+      webdav.await();
+      digests = webdav.getDigests();
+    }
+
+    server.reset();
+    try (WebDAV webdav = new WebDAV(config("\"Checksum\":\"sha256\""), new RecordingConsole(), clients)) {
+      webdav.setDigests(Checksum.SHA256, digests);
+      webdav.pull("a.txt", folder.newFile("a.txt"));
+      webdav.await();
+    }
+    assertEquals(1, server.getRequests("GET"));
+
+    try (WebDAV webdav = new WebDAV(config("\"Checksum\":\"sha256\""), new RecordingConsole(), clients)) {
+      webdav.setDigests(Checksum.SHA256, Collections.singletonMap("a.txt", Strings.repeat("0", 64)));
+      webdav.pull("a.txt", folder.newFile("b.txt"));
+      webdav.await();
+      fail("Wrong digest accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch"));
+    }
+  }
+
+  @Test
+  public void testContentStoreReadsFilesOnce() throws IOException {
+    create("small.bin", 1000);
+    create("large.bin", 9 * 1024 * 1024);
+    String options = "\"ContentAddressed\":\"true\"";
+    assertEquals(2, publish(options).getUploadedFiles());
+    String hash = Hashing.sha256().hashBytes(Files.readAllBytes(new File(source, "large.bin").toPath())).toString();
+    assertTrue(Files.exists(server.resolve(String.format(".cas/%s/%s", hash.substring(0, 2), hash.substring(2)))));
+
+    server.reset();
+    TransferSummary summary = publish(options);
+    assertEquals(1, server.getRequests("PUT")); // Only the large file is sent again
+    assertEquals(0, server.getRequests("MOVE"));
+    assertEquals(1000, summary.getSkippedBytes());
+    try (Stream<Path> staging = Files.list(server.resolve(".cas/staging"))) {
+      assertEquals(0, staging.count());
+    }
+  }
+
+  private void create(String name, int size) throws IOException {
+    byte[] content = new byte[size];
+    for (int index = 0; index < size; index++) {
+      content[index] = (byte) (index * 31 + name.length());
+    }
+    File file = new File(source, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content);
+    file.setLastModified(System.currentTimeMillis() - 60000);
+  }
+
+  private TransferSummary publish(String options) throws IOException {
+    try (WebDAV webdav = new WebDAV(config(options), new RecordingConsole(), clients)) {
+      webdav.mkdirs("rel");
+      webdav.pushAll("rel", source);
+      webdav.await();
+      return webdav.getSummary();
+    }
+  }
+
+  private TransferSummary fetch(String options, File target) throws IOException {
+    FetchIndex index = FetchIndex.load(target);
+    try (WebDAV webdav = new WebDAV(config(options), new RecordingConsole(), clients)) {
+      webdav.setFetchIndex(index);
+      webdav.pullAll("rel", target);
+      webdav.await();
+      index.save();
+      return webdav.getSummary();
+    }
+  }
+
+  private void pull(String options, String path, File file) throws IOException {
+    try (WebDAV webdav = new WebDAV(config(options), new RecordingConsole(), clients)) {
+      webdav.pull(path, file);
+      webdav.await();
+    }
+  }
+
+  private String getETag(String path) throws IOException {
+    Path file = server.resolve(path);
+    return String.format("\"%x-%x\"", Files.size(file), Files.getLastModifiedTime(file).toMillis());
+  }
+
+  private static List<String> sorted(List<String> values) {
+    List<String> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private WebDavStoreConfig config(String options) {
+    return WebDavStoreConfig.fromJSON(String.format("{\"URL\":\"%s\",%s}", server.getUrl(), options));
+  }
+}